@@ -1,5 +1,6 @@
 package client;
 
+import dto.RespDTO;
 import org.apache.commons.cli.*;
 
 import java.util.Scanner;
@@ -118,6 +119,20 @@ private void handleCommand(String[] commandParts) {
                 System.err.println("使用方法: rm <key>");
             }
             break;
+        case "scan":
+            if (commandParts.length == 3 || commandParts.length == 4) {
+                int limit = commandParts.length == 4 ? Integer.parseInt(commandParts[3]) : 0;
+                RespDTO resp = client.scan(commandParts[1], commandParts[2], null, limit);
+                if (resp != null && resp.getEntries() != null) {
+                    resp.getEntries().forEach((key, value) -> System.out.println(key + " = " + value));
+                    if (resp.getNextKey() != null) {
+                        System.out.println("还有更多数据，下一页从 \"" + resp.getNextKey() + "\" 开始。");
+                    }
+                }
+            } else {
+                System.err.println("使用方法: scan <startKey> <endKey> [limit]");
+            }
+            break;
         case "exit":
             System.out.println("退出程序...");
             client.exit();
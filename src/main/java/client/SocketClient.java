@@ -13,6 +13,8 @@ import dto.RespDTO;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.List;
+import java.util.Map;
 
 public class SocketClient implements Client {
     private String host;
@@ -90,6 +92,81 @@ public class SocketClient implements Client {
             e.printStackTrace();
         }
     }
+    /**
+     * 批量获取，一次请求返回所有key的值
+     *
+     * @param keys 键
+     * @return 存在的key及其值，请求失败返回null
+     */
+    public Map<String, String> multiGet(List<String> keys) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            // 传输序列化对象
+            ActionDTO dto = new ActionDTO(ActionTypeEnum.MGET, null, null);
+            dto.setKeys(keys);
+            oos.writeObject(dto);
+            oos.flush();
+            // 接收响应数据
+            RespDTO resp = (RespDTO) ois.readObject();
+            return resp.getEntries();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 范围扫描一页
+     *
+     * @param startKey 起始key（含），翻页时传入上一页的nextKey
+     * @param endKey   结束key（不含），null表示不设上界
+     * @param prefix   前缀，null表示不限制
+     * @param limit    每页条数，不大于0时由服务端取默认值
+     * @return 服务端响应，entries为本页结果，nextKey为下一页的起始key
+     */
+    public RespDTO scan(String startKey, String endKey, String prefix, int limit) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            // 传输序列化对象
+            ActionDTO dto = new ActionDTO(ActionTypeEnum.SCAN, startKey, null);
+            dto.setEndKey(endKey);
+            dto.setPrefix(prefix);
+            dto.setLimit(limit);
+            oos.writeObject(dto);
+            oos.flush();
+            // 接收响应数据
+            return (RespDTO) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 批量写入，服务端原子地提交整批
+     *
+     * @param actions 按顺序排列的SET、RM动作
+     * @return 服务端响应
+     */
+    public RespDTO batch(List<ActionDTO> actions) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            // 传输序列化对象
+            ActionDTO dto = new ActionDTO(ActionTypeEnum.BATCH, null, null);
+            dto.setActions(actions);
+            oos.writeObject(dto);
+            oos.flush();
+            // 接收响应数据
+            return (RespDTO) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     public void exit() {
         try (Socket socket = new Socket(host, port);
              ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
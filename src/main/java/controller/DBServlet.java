@@ -1,6 +1,8 @@
 package controller;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.TypeReference;
 import dto.ActionDTO;
 import dto.ActionTypeEnum;
@@ -13,6 +15,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -27,14 +32,110 @@ public class DBServlet extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if ("scan".equalsIgnoreCase(req.getParameter("action"))) {
+            processScan(req, resp);
+            return;
+        }
+        if ("mget".equalsIgnoreCase(req.getParameter("action"))) {
+            processMultiGet(req, resp);
+            return;
+        }
         processRequest(req, resp, ActionTypeEnum.GET);
     }
 
+    /**
+     * 批量查询：GET /easydb?action=mget&key=k1&key=k2，响应的entries中只包含存在的key
+     */
+    private void processMultiGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String[] keys = req.getParameterValues("key");
+        if (keys == null || keys.length == 0) {
+            handleException(resp, "Missing 'key' parameter");
+            return;
+        }
+        ActionDTO action = new ActionDTO(ActionTypeEnum.MGET, null, null);
+        action.setKeys(Arrays.asList(keys));
+
+        RespDTO response = dataService.handleAction(action);
+
+        resp.setContentType("application/json");
+        PrintWriter out = resp.getWriter();
+        out.print(response.toJson());
+        out.flush();
+    }
+
+    /**
+     * 范围扫描：GET /easydb?action=scan&start=..&end=..&prefix=..&limit=..，参数均可省略。
+     * 响应中的nextKey不为空时，以它作为start再次请求即可取得下一页
+     */
+    private void processScan(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        ActionDTO action = new ActionDTO(ActionTypeEnum.SCAN, req.getParameter("start"), null);
+        action.setEndKey(req.getParameter("end"));
+        action.setPrefix(req.getParameter("prefix"));
+        String limit = req.getParameter("limit");
+        try {
+            action.setLimit(limit == null ? 0 : Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            handleException(resp, "Invalid 'limit' parameter", e);
+            return;
+        }
+
+        RespDTO response = dataService.handleAction(action);
+
+        resp.setContentType("application/json");
+        PrintWriter out = resp.getWriter();
+        out.print(response.toJson());
+        out.flush();
+    }
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if ("batch".equalsIgnoreCase(req.getParameter("action"))) {
+            processBatch(req, resp);
+            return;
+        }
         processRequest(req, resp, ActionTypeEnum.SET);
     }
 
+    /**
+     * 批量写入：POST /easydb?action=batch，请求体为JSON数组，
+     * 如 [{"type":"SET","key":"k1","value":"v1"},{"type":"RM","key":"k2"}]，整批原子提交
+     */
+    private void processBatch(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        List<ActionDTO> actions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(req.getInputStream()))) {
+            StringBuilder requestBody = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                requestBody.append(line);
+            }
+            JSONArray array = JSON.parseArray(requestBody.toString());
+            for (int i = 0; i < array.size(); i++) {
+                JSONObject item = array.getJSONObject(i);
+                ActionTypeEnum type = ActionTypeEnum.valueOf(item.getString("type").toUpperCase());
+                actions.add(new ActionDTO(type, item.getString("key"), item.getString("value")));
+            }
+        } catch (Exception e) {
+            // JSON解析失败处理
+            handleException(resp, "Invalid JSON array request body", e);
+            return;
+        }
+
+        ActionDTO action = new ActionDTO(ActionTypeEnum.BATCH, null, null);
+        action.setActions(actions);
+        RespDTO response;
+        try {
+            response = dataService.handleAction(action);
+        } catch (IllegalArgumentException e) {
+            handleException(resp, e.getMessage(), e);
+            return;
+        }
+
+        resp.setContentType("application/json");
+        PrintWriter out = resp.getWriter();
+        out.print(response.toJson());
+        out.flush();
+    }
+
     @Override
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         // PUT逻辑，根据业务需求实现
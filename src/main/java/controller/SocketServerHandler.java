@@ -13,13 +13,17 @@ import dto.ActionDTO; // 动作数据传输对象
 import dto.ActionTypeEnum; // 动作类型枚举
 import dto.RespDTO; // 响应数据传输对象
 import dto.RespStatusTypeEnum; // 响应状态类型枚举
+import service.DataService; // 批量动作转换
 import service.NormalStore; // 示例存储服务
+import service.ScanPage; // 分页扫描结果
 import service.Store; // 存储接口
+import service.WriteBatch; // 写入批次
 import utils.LoggerUtil; // 日志工具类
 
 import java.io.*; // 输入输出相关包
 import java.net.Socket; // Socket通信类
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.slf4j.Logger; // SLF4J日志框架的Logger接口
@@ -68,8 +72,11 @@ public class SocketServerHandler implements Runnable {
         Map<ActionTypeEnum, CommandHandler> handlers = new HashMap<>();
         handlers.put(ActionTypeEnum.CONNET, this::handleConnet);
         handlers.put(ActionTypeEnum.GET, this::handleGet);
+        handlers.put(ActionTypeEnum.MGET, this::handleMultiGet);
         handlers.put(ActionTypeEnum.SET, this::handleSet);
         handlers.put(ActionTypeEnum.RM, this::handleRemove);
+        handlers.put(ActionTypeEnum.SCAN, this::handleScan);
+        handlers.put(ActionTypeEnum.BATCH, this::handleBatch);
         handlers.put(ActionTypeEnum.EXIT, this::handleExit);
 
         CommandHandler handler = handlers.get(dto.getType());
@@ -98,6 +105,19 @@ public class SocketServerHandler implements Runnable {
         sendSuccessResponse(oos, value);
     }
 
+    // 处理MGET命令的逻辑，一次返回所有存在的key
+    private void handleMultiGet(ActionDTO dto, ObjectOutputStream oos) throws IOException {
+        if (dto.getKeys() == null) {
+            sendErrorResponse(oos, "批量查询缺少keys");
+            return;
+        }
+        RespDTO resp = new RespDTO(RespStatusTypeEnum.SUCCESS, null);
+        resp.setEntries(new LinkedHashMap<>(this.store.multiGet(dto.getKeys())));
+        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "mget action resp" + dto.toString());
+        oos.writeObject(resp);
+        oos.flush();
+    }
+
     // 处理SET命令的逻辑
     private void handleSet(ActionDTO dto, ObjectOutputStream oos) throws IOException {
         this.store.set(dto.getKey(), dto.getValue());
@@ -112,6 +132,31 @@ public class SocketServerHandler implements Runnable {
         sendSuccessResponse(oos, null);
     }
 
+    // 处理SCAN命令的逻辑，每次返回一页，客户端用nextKey继续翻页
+    private void handleScan(ActionDTO dto, ObjectOutputStream oos) throws IOException {
+        ScanPage page = ScanPage.fetch(this.store, dto.getKey(), dto.getEndKey(), dto.getPrefix(), dto.getLimit());
+        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "scan action resp" + dto.toString());
+        RespDTO resp = new RespDTO(RespStatusTypeEnum.SUCCESS, null);
+        resp.setEntries(page.getEntries());
+        resp.setNextKey(page.getNextKey());
+        oos.writeObject(resp);
+        oos.flush();
+    }
+
+    // 处理BATCH命令的逻辑，整批原子提交
+    private void handleBatch(ActionDTO dto, ObjectOutputStream oos) throws IOException {
+        WriteBatch batch;
+        try {
+            batch = DataService.toWriteBatch(dto.getActions());
+        } catch (IllegalArgumentException e) {
+            sendErrorResponse(oos, e.getMessage());
+            return;
+        }
+        this.store.write(batch);
+        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "batch action resp, size " + batch.size());
+        sendSuccessResponse(oos, null);
+    }
+
     // 处理EXIT命令的逻辑
     private void handleExit(ActionDTO dto, ObjectOutputStream oos) throws IOException {
         this.store.close();
@@ -11,6 +11,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.io.Serializable;
+import java.util.List;
 
 @Setter
 @Getter
@@ -18,6 +19,20 @@ public class ActionDTO implements Serializable {
     private ActionTypeEnum type;
     private String key;
     private String value;
+    /*
+    * 范围扫描：key为起始key（含），endKey为结束key（不含），可以再用prefix限定前缀，limit为每页条数
+    * */
+    private String endKey;
+    private String prefix;
+    private int limit;
+    /*
+    * 批量写入：按顺序排列的SET、RM动作
+    * */
+    private List<ActionDTO> actions;
+    /*
+    * 批量查询的key
+    * */
+    private List<String> keys;
 
     public ActionDTO(ActionTypeEnum type, String key, String value) {
         this.type = type;
@@ -31,6 +46,9 @@ public class ActionDTO implements Serializable {
                 "type=" + type +
                 ", key='" + key + '\'' +
                 ", value='" + value + '\'' +
+                (type == ActionTypeEnum.SCAN ? ", endKey='" + endKey + '\'' + ", prefix='" + prefix + '\'' + ", limit=" + limit : "") +
+                (type == ActionTypeEnum.BATCH ? ", actions=" + actions : "") +
+                (type == ActionTypeEnum.MGET ? ", keys=" + keys : "") +
                 '}';
     }
 }
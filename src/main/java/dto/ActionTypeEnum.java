@@ -25,6 +25,18 @@ public enum ActionTypeEnum {
     * */
     GET,
     /*
+    * 批量查，keys中的key一次请求返回
+    * */
+    MGET,
+    /*
+    * 范围扫描，分页返回
+    * */
+    SCAN,
+    /*
+    * 批量写入，actions中的SET、RM原子地提交
+    * */
+    BATCH,
+    /*
     * 退出
     * */
     EXIT;
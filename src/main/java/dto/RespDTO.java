@@ -12,12 +12,21 @@ import lombok.Setter;
 import com.alibaba.fastjson.JSON;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
 
 @Setter
 @Getter
 public class RespDTO implements Serializable {
     private RespStatusTypeEnum status;
     private String value;
+    /*
+    * 范围扫描的结果，按key升序
+    * */
+    private LinkedHashMap<String, String> entries;
+    /*
+    * 范围扫描下一页的起始key，为null时没有下一页
+    * */
+    private String nextKey;
 
     public RespDTO(RespStatusTypeEnum status, String value) {
         this.status = status;
@@ -29,6 +38,7 @@ public class RespDTO implements Serializable {
         return "RespDTO{" +
                 "status=" + status +
                 ", value='" + value + '\'' +
+                (entries == null ? "" : ", entries=" + entries + ", nextKey='" + nextKey + '\'') +
                 '}';
     }
 
@@ -8,8 +8,8 @@
 package example;
 
 import controller.SocketServerController;
-import service.NormalStore;
 import service.Store;
+import service.StoreConfig;
 
 import java.io.File;
 
@@ -18,7 +18,12 @@ public class SocketServerUsage {
         String host = "localhost";
         int port = 12345;
         String dataDir = "data"+ File.separator;
-        Store store = new NormalStore(dataDir);
+        StoreConfig config = new StoreConfig();
+        // 命令行参数指定分片数，多个分片时不同分片上的写入并行
+        if (args.length > 0) {
+            config.setShardCount(Integer.parseInt(args[0]));
+        }
+        Store store = Store.open(dataDir, config);
         SocketServerController controller = new SocketServerController(host, port, store);
         controller.startServer();
     }
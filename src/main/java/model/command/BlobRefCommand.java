@@ -0,0 +1,37 @@
+package model.command;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 值分离后的SET命令：值写在blob文件中，这里只记录它的位置。
+ * 只出现在刷盘之后的活跃文件和SSTable中，以及blob回收写回内存表的新位置，读取时换成完整的{@link SetCommand}。
+ */
+@Setter
+@Getter
+public class BlobRefCommand extends AbstractCommand {
+    private String key;
+
+    /**
+     * blob文件编号
+     */
+    private long fileId;
+
+    /**
+     * 值在blob文件中的起始位置
+     */
+    private long offset;
+
+    /**
+     * 值的字节数
+     */
+    private int len;
+
+    public BlobRefCommand(String key, long fileId, long offset, int len) {
+        super(CommandTypeEnum.BLOB);
+        this.key = key;
+        this.fileId = fileId;
+        this.offset = offset;
+        this.len = len;
+    }
+}
@@ -15,5 +15,9 @@ public enum CommandTypeEnum {
     /*
     * 删
     * */
-    RM
+    RM,
+    /*
+    * 值分离存放在blob文件中的增、改，只记录值的位置
+    * */
+    BLOB
 }
@@ -1,32 +1,94 @@
 package service;
 
 import dto.ActionDTO;
+import dto.ActionTypeEnum;
 import dto.RespDTO;
 import dto.RespStatusTypeEnum;
 
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 public class DataService {
-    private NormalStore store;
+    private Store store;
+    /**
+     * 分片数由系统属性easydb.shards指定，默认不分片
+     */
     public DataService() {
+        this(shardedConfig(Integer.getInteger("easydb.shards", 1)));
+    }
+
+    /**
+     * @param config 存储配置，分片数大于1时使用分片存储
+     */
+    public DataService(StoreConfig config) {
         String dataDir = "severlet" + File.separator;
-        store = new NormalStore(dataDir);
+        store = Store.open(dataDir, config);
     }
 
 
+    private static StoreConfig shardedConfig(int shardCount) {
+        StoreConfig config = new StoreConfig();
+        config.setShardCount(shardCount);
+        return config;
+    }
+
     public RespDTO handleAction(ActionDTO action) {
         switch (action.getType()) {
             case GET:
                 return new RespDTO(RespStatusTypeEnum.SUCCESS, store.get(action.getKey()));
+            case MGET:
+                if (action.getKeys() == null) {
+                    return new RespDTO(RespStatusTypeEnum.FAIL, "批量查询缺少keys");
+                }
+                RespDTO found = new RespDTO(RespStatusTypeEnum.SUCCESS, null);
+                found.setEntries(new LinkedHashMap<>(store.multiGet(action.getKeys())));
+                return found;
             case SET:
                 store.set(action.getKey(), action.getValue());
                 return new RespDTO(RespStatusTypeEnum.SUCCESS, null);
             case RM:
                 store.rm(action.getKey());
                 return new RespDTO(RespStatusTypeEnum.SUCCESS, null);
+            case SCAN:
+                ScanPage page = ScanPage.fetch(store, action.getKey(), action.getEndKey(), action.getPrefix(), action.getLimit());
+                RespDTO resp = new RespDTO(RespStatusTypeEnum.SUCCESS, null);
+                resp.setEntries(page.getEntries());
+                resp.setNextKey(page.getNextKey());
+                return resp;
+            case BATCH:
+                store.write(toWriteBatch(action.getActions()));
+                return new RespDTO(RespStatusTypeEnum.SUCCESS, null);
             // 其他命令处理...
             default:
                 return new RespDTO(RespStatusTypeEnum.FAIL, "未知的命令类型");
         }
     }
+
+    /**
+     * 把批量动作转换为写入批次，只接受SET和RM
+     *
+     * @param actions 按顺序排列的动作
+     * @return 写入批次
+     * @throws IllegalArgumentException 动作为空或包含其他类型的动作
+     */
+    public static WriteBatch toWriteBatch(List<ActionDTO> actions) {
+        if (actions == null) {
+            throw new IllegalArgumentException("批量写入缺少actions");
+        }
+        WriteBatch batch = new WriteBatch();
+        for (ActionDTO action : actions) {
+            if (action.getKey() == null || action.getKey().isEmpty()) {
+                throw new IllegalArgumentException("批量写入的key不能为空");
+            }
+            if (action.getType() == ActionTypeEnum.SET) {
+                batch.set(action.getKey(), action.getValue());
+            } else if (action.getType() == ActionTypeEnum.RM) {
+                batch.rm(action.getKey());
+            } else {
+                throw new IllegalArgumentException("批量写入不支持的动作: " + action.getType());
+            }
+        }
+        return batch;
+    }
 }
@@ -0,0 +1,95 @@
+package service;
+
+import model.command.BlobRefCommand;
+import model.command.Command;
+import model.command.SetCommand;
+import service.blob.BlobSet;
+import service.sstable.TableIterator;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 把多路归并后的命令流转换为范围扫描的结果：跳过删除标记，值分离的命令从固定的blob文件中读出值，
+ * 遇到结束key或达到条数上限时停止并释放底层迭代器和blob文件。
+ */
+class MergedScanIterator implements ScanIterator {
+
+    private final TableIterator merged;
+    private final String endKey;
+    private final int limit;
+    private final BlobSet blobs;
+    private int returned;
+    private Map.Entry<String, String> next;
+    private boolean closed;
+
+    /**
+     * @param merged 按key升序、每个key只有最新版本的命令流
+     * @param endKey 结束key（不含），null表示不设上界
+     * @param limit  最多返回的条数，不大于0表示不限制
+     * @param blobs  创建时固定的blob文件，关闭时释放
+     */
+    MergedScanIterator(TableIterator merged, String endKey, int limit, BlobSet blobs) {
+        this.merged = merged;
+        this.endKey = endKey;
+        this.limit = limit;
+        this.blobs = blobs;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        if (limit > 0 && returned >= limit) {
+            close();
+            return false;
+        }
+        while (merged.hasNext()) {
+            Command command = merged.next();
+            if (endKey != null && command.getKey().compareTo(endKey) >= 0) {
+                break;
+            }
+            if (command instanceof SetCommand) {
+                next = new AbstractMap.SimpleImmutableEntry<>(command.getKey(), ((SetCommand) command).getValue());
+                return true;
+            }
+            if (command instanceof BlobRefCommand) {
+                try {
+                    next = new AbstractMap.SimpleImmutableEntry<>(command.getKey(), blobs.read((BlobRefCommand) command));
+                } catch (IOException e) {
+                    close();
+                    throw new RuntimeException(e);
+                }
+                return true;
+            }
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, String> entry = next;
+        next = null;
+        returned++;
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            merged.close();
+            blobs.release();
+        }
+    }
+}
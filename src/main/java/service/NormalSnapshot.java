@@ -0,0 +1,199 @@
+package service;
+
+import model.command.BlobRefCommand;
+import model.command.Command;
+import model.command.CommandPos;
+import model.command.SetCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.blob.BlobSet;
+import service.index.KeyIndex;
+import service.memtable.MemTable;
+import service.sstable.FilterStats;
+import service.sstable.MergingIterator;
+import service.sstable.SSTableReader;
+import service.sstable.TableIterator;
+import service.sstable.TableSet;
+import utils.CommandUtil;
+import utils.LoggerUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link NormalStore}的快照，持有创建时刻的全部数据源，读取不加引擎锁。
+ * <p>
+ * 查找顺序与引擎相同：内存表从新到旧（只看序号不大于快照序号的版本）、活跃文件、SSTable。
+ * 活跃文件通过创建时的索引副本和只读句柄读取，之后追加的记录不在索引副本中；
+ * SSTable集合是创建时的版本，每个文件都被增加了引用，压缩删除它们后映射仍然有效，直到快照关闭；
+ * blob文件同样在创建时固定，回收删除它们后已打开的句柄仍能读取。
+ */
+class NormalSnapshot implements Snapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NormalSnapshot.class);
+    private static final String logFormat = "[NormalSnapshot][{}]: {}";
+
+    private final long sequence;
+
+    /**
+     * 创建时的活跃内存表和等待刷盘的内存表，从新到旧
+     */
+    private final List<MemTable> memTables;
+    private final KeyIndex index;
+    private final long indexedLength;
+
+    /**
+     * 活跃文件的只读句柄，创建时活跃文件为空则为null
+     */
+    private final FileChannel activeFile;
+    private final TableSet tables;
+    private final BlobSet blobs;
+    private final FilterStats filterStats;
+    private final Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param tables 调用方已经为其中每个文件增加了引用，关闭快照时释放
+     * @param blobs  创建时固定的blob文件，关闭快照时释放
+     */
+    NormalSnapshot(long sequence, List<MemTable> memTables, KeyIndex index, long indexedLength,
+                   FileChannel activeFile, TableSet tables, BlobSet blobs, FilterStats filterStats, Runnable onClose) {
+        this.sequence = sequence;
+        this.memTables = memTables;
+        this.index = index;
+        this.indexedLength = indexedLength;
+        this.activeFile = activeFile;
+        this.tables = tables;
+        this.blobs = blobs;
+        this.filterStats = filterStats;
+        this.onClose = onClose;
+    }
+
+    /**
+     * @return 快照的序号，即创建时最后一条已分配的写入序号，序号不大于它的写入全部可见
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String get(String key) {
+        checkOpen();
+        try {
+            Command command = null;
+            for (MemTable memTable : memTables) {
+                command = memTable.get(key, sequence);
+                if (command != null) {
+                    break;
+                }
+            }
+            if (command == null) {
+                command = getFromDisk(key);
+            }
+            if (command instanceof BlobRefCommand) {
+                return blobs.read((BlobRefCommand) command);
+            }
+            return command instanceof SetCommand ? ((SetCommand) command).getValue() : null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Command getFromDisk(String key) throws IOException {
+        CommandPos cmdPos = index.get(key);
+        if (cmdPos != null) {
+            Command command = CommandUtil.decode(read(cmdPos.getPos(), cmdPos.getLen()));
+            // 索引只存哈希，核对key排除哈希碰撞
+            if (command != null && key.equals(command.getKey())) {
+                return command;
+            }
+            // 槽位被碰撞的key占用，要查的key仍可能在活跃文件中
+            command = KeyIndex.scanFor(activeFile, indexedLength, key);
+            if (command != null) {
+                return command;
+            }
+        }
+        for (SSTableReader table : tables.candidates(key)) {
+            if (!table.mayContain(key)) {
+                filterStats.recordMiss();
+                continue;
+            }
+            Command command = table.get(key);
+            if (command != null) {
+                filterStats.recordHit();
+                return command;
+            }
+            filterStats.recordFalsePositive();
+        }
+        return null;
+    }
+
+    @Override
+    public ScanIterator scan(String startKey, String endKey, int limit) {
+        checkOpen();
+        if (startKey != null && endKey != null && startKey.compareTo(endKey) >= 0) {
+            return ScanIterator.empty();
+        }
+        List<TableIterator> sources = new ArrayList<>();
+        try {
+            for (MemTable memTable : memTables) {
+                sources.add(memTable.iterator(startKey, endKey, sequence));
+            }
+            sources.add(NormalStore.activeFileIterator(
+                    indexedLength > 0 ? read(0, (int) indexedLength) : new byte[0], startKey, endKey));
+            for (SSTableReader table : tables.all()) {
+                if (table.intersects(startKey, endKey)) {
+                    sources.add(table.iterator(startKey));
+                }
+            }
+        } catch (Throwable t) {
+            for (TableIterator source : sources) {
+                source.close();
+            }
+            throw new RuntimeException(t);
+        }
+        return new MergedScanIterator(new MergingIterator(sources), endKey, limit, blobs.copy());
+    }
+
+    private byte[] read(long pos, int len) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(len);
+        while (dst.hasRemaining()) {
+            if (activeFile.read(dst, pos + dst.position()) < 0) {
+                throw new IOException("读取越界: pos=" + pos + " len=" + len);
+            }
+        }
+        return dst.array();
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("快照已关闭");
+        }
+    }
+
+    /**
+     * 释放持有的文件，正在进行的扫描各自持有文件引用，不受影响
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (SSTableReader table : tables.all()) {
+            table.release();
+        }
+        blobs.release();
+        if (activeFile != null) {
+            try {
+                activeFile.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "close", "close active file failed");
+            }
+        }
+        onClose.run();
+    }
+}
@@ -7,32 +7,61 @@
  */
 package service;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
+import model.command.BlobRefCommand;
 import model.command.Command;
 import model.command.CommandPos;
 import model.command.RmCommand;
 import model.command.SetCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import service.blob.BlobFile;
+import service.blob.BlobSet;
+import service.blob.BlobStore;
+import service.cache.BlockCache;
+import service.cache.ValueCache;
+import service.compaction.CompactionPicker;
+import service.compaction.CompactionScheduler;
+import service.compaction.CompactionStyle;
+import service.compaction.CompactionTask;
+import service.compaction.LeveledCompactionPicker;
+import service.compaction.SizeTieredCompactionPicker;
+import service.index.KeyIndex;
+import service.memtable.MemTable;
+import service.sstable.FilterStats;
+import service.sstable.MergingIterator;
+import service.sstable.SSTableReader;
+import service.sstable.SSTableWriter;
+import service.sstable.TableIterator;
+import service.sstable.TableSet;
+import service.sstable.VersionEdit;
+import service.wal.WriteAheadLog;
+import utils.CommandCodec;
 import utils.CommandUtil;
+import utils.FileAppender;
+import utils.HintFile;
 import utils.LoggerUtil;
-import utils.RandomAccessFileUtil;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.ByteBuffer;
+import java.nio.file.StandardOpenOption;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,26 +71,79 @@ public class NormalStore implements Store {
     public static final String TABLE = ".table";
     public static final String RW_MODE = "rw";
     public static final String NAME = "data";
+    /**
+     * 滚动后的table文件名：data + 文件编号 + .table，文件编号越大数据越新
+     */
+    private static final Pattern TABLE_FILE_PATTERN = Pattern.compile("^" + NAME + "(\\d+)\\" + TABLE + "$");
     private final Logger LOGGER = LoggerFactory.getLogger(NormalStore.class);
     private final String logFormat = "[NormalStore][{}]: {}";
-    // 在类的成员变量中初始化一个线程池，可以根据需要调整线程池的配置
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
     private final ReentrantLock rotateLock = new ReentrantLock();
 
     /**
-     * 内存表，类似缓存
+     * 内存表，类似缓存。并发跳表，写者之间不互斥，读取不加锁；
+     * 只在持有写锁时整体替换，替换时先发布immutable再发布新的memTable，
+     * 无锁读取的线程看到新内存表时一定也能看到被切换出去的旧内存表
+     */
+    private volatile MemTable memTable;
+
+    /**
+     * 等待后台刷盘的不可变内存表，从新到旧排列；写时复制，替换时持有写锁
+     */
+    private volatile List<MemTable> immutables;
+
+    /**
+     * 后台刷盘线程，按从旧到新的顺序逐个持久化不可变内存表
+     */
+    private final ExecutorService flushExecutor;
+
+    /**
+     * 刷盘任务已提交且尚未处理完所有不可变内存表，避免重复提交
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    /**
+     * 写入停顿时在这里等待刷盘完成
+     */
+    private final Object flushMonitor = new Object();
+
+    /**
+     * 后台刷盘失败的原因，之后的写入直接失败，不再无限堆积内存表
+     */
+    private volatile Throwable backgroundError;
+
+    private final LongAdder writeSlowdowns = new LongAdder();
+    private final LongAdder writeStalls = new LongAdder();
+
+    /**
+     * 压缩时丢弃的删除命令条数
      */
-    private TreeMap<String, Command> memTable;
+    private final LongAdder droppedTombstones = new LongAdder();
 
     /**
-     * 不可变内存表，用于持久化内存表中时暂存数据
+     * 尚未关闭的快照个数
      */
-    private TreeMap<String, Command> immutable;
+    private final AtomicInteger liveSnapshots = new AtomicInteger();
 
     /**
-     * hash索引，存的是数据长度和偏移量
+     * hash索引，存的是数据长度和偏移量，开放寻址，只存key的哈希，命中后需核对记录中的key
+     * 只索引当前活跃的data.table，滚动后的文件由SSTable自身的稀疏索引定位
      * */
-    private HashMap<String, CommandPos> index;
+    private KeyIndex index;
+
+    /**
+     * 活跃文件中已经落盘并进入索引的长度，范围扫描只读取这一部分；修改时持有写锁
+     */
+    private long indexedLength;
+
+    /**
+     * 已滚动的SSTable集合，不可变；滚动和压缩以增量变更生成新集合，替换时持有写锁
+     */
+    private volatile TableSet tables;
+
+    /**
+     * 文件编号生成器，保证新生成的文件编号单调递增
+     */
+    private final AtomicLong fileIdGenerator = new AtomicLong(0);
 
     /**
      * 数据目录
@@ -69,398 +151,986 @@ public class NormalStore implements Store {
     private final String dataDir;
 
     /**
-     * 读写锁，支持多线程，并发安全写入
+     * 读写锁。读锁是共享的：写入内存表和读取磁盘数据都只持有读锁，彼此并发；
+     * 写锁只用于切换内存表和发布刷盘、滚动、压缩的结果，都是内存操作，持有时间很短
      */
     private final ReadWriteLock indexLock;
 
     /**
-     * 暂存数据的日志句柄
+     * 活跃data.table的追加器，文件只打开一次，写入位置在内存中维护
+     */
+    private FileAppender appender;
+
+    /**
+     * 活跃data.table的提示文件，每次刷盘追加一批位置信息，重启时代替扫描数据文件
+     */
+    private HintFile hintFile;
+
+    /**
+     * 预写日志，保证内存表中尚未刷盘的变更在崩溃后可恢复
+     */
+    private final WriteAheadLog wal;
+
+    private final StoreConfig config;
+
+    /**
+     * 布隆过滤器命中统计
+     */
+    private final FilterStats filterStats = new FilterStats();
+
+    /**
+     * 所有SSTable共享的块缓存，未启用时为null
+     */
+    private final BlockCache blockCache;
+
+    /**
+     * 热点key的值缓存，未启用时为null。缓存的是值而不是文件位置，
+     * 合并不会改变任何key的可见值，因此只需要写入和删除时同步更新
+     */
+    private final ValueCache valueCache;
+
+    /**
+     * 值分离后的blob文件。压缩只搬动表文件中的位置，值写入后不再重写，直到所在文件被回收
+     */
+    private final BlobStore blobStore;
+
+    /**
+     * 压缩文件选择策略
+     */
+    private final CompactionPicker compactionPicker;
+
+    /**
+     * 后台压缩调度器，文件滚动时触发
+     */
+    private final CompactionScheduler compactionScheduler;
+
+    /**
+     * 持久化阈值，内存表估算占用的字节数
      */
-    private RandomAccessFile writerReader;
+    private final long storeThreshold;
 
     /**
-     * 持久化阈值
+     * 活跃文件滚动阈值，不小于内存表阈值，多次刷盘才滚动一次
      */
-    private final int storeThreshold = 3;
-    private static final long FILE_SIZE_THRESHOLD = 1024 * 1024 * 1; // 1MB
-    private final int MERGE_THRESHOLD = 5; // 假设当rotate次数达到5次时，进行
+    private final long fileSizeThreshold;
+    /**
+     * 压缩无序日志文件时内存中最多累积的记录字节数，超过后排序写成临时有序段
+     */
+    private static final long COMPRESS_RUN_BYTES = 16L * 1024 * 1024;
+    private static final String RUN_SUFFIX = ".run";
+    /**
+     * 启动时扫描活跃文件的读缓冲区大小
+     */
+    private static final int RECOVERY_READ_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * 批量获取时活跃文件中两条记录的间隔不超过该值就合并为一次读取，多读的间隔比多一次系统调用便宜
+     */
+    private static final long MULTI_GET_COALESCE_GAP = 4 * 1024;
+    /**
+     * 批量获取时合并后单次读取的最大字节数
+     */
+    private static final long MULTI_GET_MAX_READ = 1024 * 1024;
 
     public NormalStore(String dataDir) {
+        this(dataDir, new StoreConfig());
+    }
+
+    public NormalStore(String dataDir, StoreConfig config) {
+        if (new File(dataDir, ShardedStore.SHARDS_FILE).exists()) {
+            // 分片存储的根目录下没有数据，直接打开会得到一个空的存储，把各分片的数据都藏起来
+            throw new IllegalStateException("数据目录" + dataDir + "是分片存储，需要以分片方式打开");
+        }
         this.dataDir = dataDir;
+        this.config = config;
+        this.storeThreshold = config.getMemTableBytes();
+        this.fileSizeThreshold = Math.max(config.getActiveFileBytes(), config.getMemTableBytes());
+        this.blockCache = config.getBlockCacheBytes() > 0 ? new BlockCache(config.getBlockCacheBytes()) : null;
+        this.valueCache = config.getValueCacheMaxEntries() > 0
+                ? new ValueCache(config.getValueCacheMaxEntries(), config.getValueCacheMaxBytes()) : null;
         this.indexLock = new ReentrantReadWriteLock();
-        this.memTable = new TreeMap<String, Command>();
-        this.immutable = new TreeMap<String, Command>();
-        this.index = new HashMap<>();
+        this.memTable = newMemTable();
+        this.immutables = Collections.emptyList();
+        this.flushExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "memtable-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        this.index = new KeyIndex();
+        this.tables = TableSet.EMPTY;
+        this.compactionPicker = config.getCompactionStyle() == CompactionStyle.SIZE_TIERED
+                ? new SizeTieredCompactionPicker(config) : new LeveledCompactionPicker(config);
+        this.compactionScheduler = new CompactionScheduler(this::compactOnce);
 
         File file = new File(dataDir);
         if (!file.exists()) {
             LoggerUtil.info(LOGGER,logFormat, "NormalStore","dataDir isn't exist,creating...");
             file.mkdirs();
         }
-        this.reloadIndex();
-        // 启动后台线程执行多文件压缩
-        Thread mergeThread = new Thread(() -> {
+        try {
+            this.blobStore = new BlobStore(dataDir, config.getBlobFileBytes());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            this.reloadIndex();
+        } catch (RuntimeException e) {
+            // 部分table文件缺失时继续服务会读到旧值或读不到值，打开直接失败
+            flushExecutor.shutdown();
             try {
-                while (true) {
-                    mergeAndCompressFiles();
-                    this.reloadIndex();
-                    Thread.sleep(1); // 每隔60秒执行一次合并和压缩操作
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (IOException e) {
-                e.printStackTrace();
+                compactionScheduler.close();
+                blobStore.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
             }
-        });
-        mergeThread.setDaemon(true); // 设置为后台线程
-        mergeThread.start();
+            throw e;
+        }
+        try {
+            this.appender = new FileAppender(getCurrentFilePath());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // 回放预写日志，恢复崩溃前尚未刷盘的内存表
+        this.wal = new WriteAheadLog(dataDir, config.getWalSyncPolicy(), config.getWalSyncIntervalMs());
+        try {
+            wal.open((record, seq) -> {
+                Command command = CommandUtil.decode(record);
+                if (command != null) {
+                    memTable.put(seq, command.getKey(), record);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // 打开时已有的文件可能已经需要压缩，之后由文件滚动触发
+        compactionScheduler.trigger();
     }
 
-/**
- * 初始化文件计数器。
- * 该方法用于确定当前数据目录中最大文件编号，并返回其加一值，用于生成新文件的名称。
- * 文件名应以特定格式开始，后跟一个数字和表名。
- *
- * @return 返回最大文件编号加一后的值，如果目录中没有文件，则返回0。
- */
-
-
-
-private static final AtomicInteger fileCounter = new AtomicInteger(0);
-
-public String genFilePath() {
-    long timestamp = System.currentTimeMillis();
-    String baseName = this.dataDir + File.separator + NAME + timestamp + TABLE;
-    String fileName = baseName;
-    int counter = fileCounter.getAndIncrement(); // 获取并增加计数器
-
-    // 如果文件已存在，则循环尝试添加递增序号直到找到一个可用的文件名
-    while (Files.exists(Paths.get(fileName))) {
-        fileName = baseName + "_" + counter; // 添加序号作为后缀
-        counter = fileCounter.getAndIncrement(); // 递增计数器
+    /**
+     * 判断文件名是否是引擎在数据目录下创建的文件：活跃文件及其提示、滚动文件及其过滤器和临时文件、
+     * 预写日志段、blob文件及其统计
+     *
+     * @param name 文件名
+     * @return 是引擎文件返回true
+     */
+    static boolean isEngineFile(String name) {
+        return name.startsWith(NAME)
+                || name.startsWith(WriteAheadLog.PREFIX) && name.endsWith(WriteAheadLog.SUFFIX)
+                || name.startsWith(BlobStore.PREFIX);
     }
 
-    return fileName;
-}
-
+    /**
+     * 生成一个新的滚动文件路径。
+     * 文件编号取当前时间戳，若不大于已分配的最大编号则顺延，保证编号严格递增，
+     * 查询和合并都依赖编号判断文件新旧。
+     *
+     * @return 新文件路径
+     */
+    public String genFilePath() {
+        long timestamp = System.currentTimeMillis();
+        long fileId = fileIdGenerator.updateAndGet(last -> Math.max(last + 1, timestamp));
+        return this.dataDir + File.separator + NAME + fileId + TABLE;
+    }
 
     public String getCurrentFilePath() {
         return this.dataDir + File.separator + NAME + TABLE;
     }
 
+    /**
+     * 从文件名中解析文件编号，非滚动文件返回-1
+     */
+    private static long parseFileId(String fileName) {
+        Matcher matcher = TABLE_FILE_PATTERN.matcher(fileName);
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
 
-public void reloadIndex() {
-    rotateLock.lock();
-    try {
-        File dataDirFile = new File(dataDir);
-        File[] tableFiles = dataDirFile.listFiles((dir, name) -> name.startsWith(NAME) && name.endsWith(TABLE));
+    /**
+     * 打开存储时建立活跃文件索引和SSTable集合，只在构造时调用一次。
+     * 活跃的data.table仍是长度前缀的追加日志，hash索引优先从提示文件加载，
+     * 只扫描提示未覆盖的尾部（提示缺失或损坏时即整个文件），扫描结果补写回提示文件；
+     * 滚动后的文件只读取footer和稀疏索引，在ForkJoinPool上并行打开。之后文件的增减都以{@link VersionEdit}增量生效，不再重新扫描。
+     * 旧版本遗留的长度前缀格式滚动文件会在这里被原地转换为SSTable。
+     * 任何文件打开失败都抛出异常，已打开的文件被关闭。
+     */
+    private void reloadIndex() {
+        rotateLock.lock();
+        indexLock.writeLock().lock();
+        ForkJoinPool pool = null;
+        List<ForkJoinTask<SSTableReader>> opening = new ArrayList<>();
+        try {
+            // 滚动后的文件互相独立，并行打开（读取footer、索引和过滤器，转换旧格式文件），
+            // 同时在当前线程恢复活跃文件的索引
+            File[] tableFiles = new File(dataDir).listFiles((dir, name) -> parseFileId(name) >= 0);
+            if (tableFiles != null && tableFiles.length > 0) {
+                pool = new ForkJoinPool(Math.max(1, Math.min(config.getRecoveryThreads(), tableFiles.length)));
+                for (File tableFile : tableFiles) {
+                    long fileId = parseFileId(tableFile.getName());
+                    fileIdGenerator.accumulateAndGet(fileId, Math::max);
+                    opening.add(pool.submit(() -> openTable(tableFile, fileId)));
+                }
+            }
 
-        if (tableFiles == null) {
-            return;
+            KeyIndex activeIndex = new KeyIndex();
+            int activeFileId = activeIndex.fileId(getCurrentFilePath());
+            this.hintFile = HintFile.open(getCurrentFilePath(),
+                    (key, pos, len) -> activeIndex.put(key, activeFileId, pos, len));
+            File activeFile = new File(getCurrentFilePath());
+            if (activeFile.length() > hintFile.getCoveredLength()) {
+                HashMap<String, CommandPos> tailIndex = new HashMap<>();
+                long validLength = scanActiveFile(activeFile.getAbsolutePath(), hintFile.getCoveredLength(), tailIndex);
+                tailIndex.forEach((key, pos) -> activeIndex.put(key, activeFileId, pos.getPos(), pos.getLen()));
+                hintFile.append(tailIndex, validLength);
+            }
+            this.index = activeIndex;
+            this.indexedLength = hintFile.getCoveredLength();
+
+            // 各文件结果汇总后由TableSet按层级和顺序号排序，与文件列举顺序无关
+            List<SSTableReader> newTables = new ArrayList<>(opening.size());
+            for (ForkJoinTask<SSTableReader> task : opening) {
+                newTables.add(task.join());
+            }
+            opening.clear();
+            this.tables = new TableSet(newTables);
+        } catch (Exception e) {
+            // 部分文件打开失败时关闭已经打开的文件，打开失败向上抛出，不能带着缺失的文件继续服务
+            for (ForkJoinTask<SSTableReader> task : opening) {
+                try {
+                    task.join().close();
+                } catch (Exception ignored) {
+                    // 打开失败的文件没有需要释放的资源
+                }
+            }
+            if (hintFile != null) {
+                try {
+                    hintFile.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            indexLock.writeLock().unlock();
+            rotateLock.unlock();
+        }
+//    LoggerUtil.debug(LOGGER, logFormat, "reload index: " + index.toString());
+    }
+
+    /**
+     * 打开一个滚动后的文件，旧版本遗留的长度前缀格式文件先原地转换为SSTable
+     */
+    private SSTableReader openTable(File tableFile, long fileId) throws IOException {
+        String filePath = tableFile.getAbsolutePath();
+        if (!SSTableReader.isTable(tableFile)) {
+            LoggerUtil.info(LOGGER, logFormat, "reloadIndex", "converting legacy table " + filePath);
+            // 旧格式文件中不会有值分离的命令
+            compressFile(filePath, filePath, fileId, new HashMap<>());
         }
-        for (File pfile : tableFiles) {
-            String filePath = pfile.getAbsolutePath();
-            if(filePath.endsWith(TABLE)) {
-                RandomAccessFile file = new RandomAccessFile(filePath, RW_MODE);
-                long len = file.length();
-                long start = 0;
-                file.seek(start);
-                while (start < len) {
-                    int cmdLen = file.readInt();
-                    byte[] bytes = new byte[cmdLen];
-                    file.read(bytes);
-                    JSONObject value = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8));
-                    Command command = CommandUtil.jsonToCommand(value);
-                    start += 4;
+        return new SSTableReader(filePath, fileId, config.getBloomBitsPerKey(), blockCache);
+    }
+
+    /**
+     * 从指定位置顺序扫描活跃文件，建立key到记录位置的索引，同一个key后出现的记录覆盖先出现的。
+     * 以大块读入缓冲区后在内存中逐条解析，不再每条记录两次系统调用。
+     * 崩溃时没有写完的尾部记录被截掉，它们仍在预写日志中，回放时会重新写入。
+     *
+     * @param filePath 活跃文件路径
+     * @param from     开始扫描的位置，必须是一条记录的起点
+     * @param tailIndex 扫描结果
+     * @return 有效数据的末尾位置
+     * @throws IOException 读取失败
+     */
+    private long scanActiveFile(String filePath, long from, Map<String, CommandPos> tailIndex) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileLength = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(RECOVERY_READ_BUFFER_SIZE);
+            long readPos = from;
+            long validEnd = from;
+            boolean torn = false;
+            while (!torn) {
+                int n = channel.read(buffer, readPos);
+                if (n > 0) {
+                    readPos += n;
+                }
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    int cmdLen = buffer.getInt(buffer.position());
+                    if (cmdLen < 0) {
+                        torn = true;
+                        break;
+                    }
+                    if (buffer.remaining() < 4 + cmdLen) {
+                        break;
+                    }
+                    buffer.position(buffer.position() + 4);
+                    ByteBuffer record = buffer.slice();
+                    record.limit(cmdLen);
+                    buffer.position(buffer.position() + cmdLen);
+                    Command command = CommandCodec.decode(record);
                     if (command != null) {
-                        CommandPos cmdPos = new CommandPos((int) start, cmdLen,filePath);
-                        index.put(command.getKey(), cmdPos);
+                        tailIndex.put(command.getKey(), new CommandPos(validEnd + 4, cmdLen, filePath));
                     }
-                    start += cmdLen;
+                    validEnd += 4 + cmdLen;
+                }
+                buffer.compact();
+                if (n < 0) {
+                    break;
                 }
-                file.seek(file.length());
-                file.close();
+                if (!buffer.hasRemaining()) {
+                    // 单条记录比缓冲区大，扩容后继续读
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+            }
+            if (validEnd < fileLength) {
+                LoggerUtil.info(LOGGER, logFormat, "reloadIndex",
+                        "truncating torn tail of " + filePath + " at " + validEnd + ", length " + fileLength);
+                channel.truncate(validEnd);
             }
+            return validEnd;
         }
-    } catch (Exception e) {
-        e.printStackTrace();
     }
-    finally {
-        rotateLock.unlock();
-    }
-//    LoggerUtil.debug(LOGGER, logFormat, "reload index: " + index.toString());
-}
 
     /**
      * 检查当前文件的大小，如果达到指定的阈值，则进行文件轮转。
      * 文件轮转通常是为了避免单个文件过大，导致处理效率下降或管理困难。
-     * 此方法通过同步关键字确保在多线程环境下的安全性，避免多个线程同时尝试轮转文件导致的竞争条件。
+     * 只由后台刷盘线程调用，活跃文件只有这一个线程写入。
      *
      * @throws IOException 如果在检查文件大小或执行文件轮转过程中发生I/O错误。
      */
     // 检查并执行rotate操作
     private void checkAndRotateIfNeeded() throws IOException {
-        this.writerReader = new RandomAccessFile(this.getCurrentFilePath(), RW_MODE);
-        // 检查当前文件的大小是否达到轮转的阈值
-        if (this.writerReader.length() >= FILE_SIZE_THRESHOLD) {
-            rotateFile();
+        // 检查当前文件的大小是否达到轮转的阈值，大小由追加器在内存中维护，无需打开文件
+        if (appender.size() >= fileSizeThreshold) {
             // 如果达到阈值，则执行文件轮转操作
+            rotateFile();
         }
-        this.writerReader.close();
-
     }
     /**
      * 执行日志文件的滚动操作。
-     * 当需要滚动日志文件时，此方法将当前正在写入的日志文件重命名并压缩，然后创建一个新的日志文件以继续写入。
-     * 这个方法使用了一个互斥锁来确保在滚动操作期间不会有其他线程尝试写入日志文件，从而保证了操作的原子性。
+     * 将当前活跃的data.table按key去重排序后写成一个第0层的SSTable，然后清空活跃文件和它的hash索引，
+     * 并通知压缩调度器。
+     * 只由后台刷盘线程调用：生成SSTable时不持有锁，读请求照常通过活跃文件的索引读取；
+     * 之后在写锁内一次性换上新文件、清空索引并换掉追加器，读路径不会看到半成品。
      *
-     * @throws IOException 如果在移动文件或创建新文件时发生I/O错误。
+     * @throws IOException 如果在生成SSTable或删除活跃文件时发生I/O错误。
      */
     // 执行rotate操作
     private void rotateFile() throws IOException {
-        rotateLock.lock();
+        appender.flush();
+        // 生成滚动后的文件路径。
+        String rotatedFilePath = genFilePath();
+        long fileId = parseFileId(new File(rotatedFilePath).getName());
+        // 将当前的日志文件去重排序后写成SSTable
+        Map<Long, Long> discarded = new HashMap<>();
+        compressFile(getCurrentFilePath(), rotatedFilePath, fileId, discarded);
+        SSTableReader reader = new SSTableReader(rotatedFilePath, fileId, config.getBloomBitsPerKey(), blockCache);
+
+        indexLock.writeLock().lock();
         try {
-            // 执行那些真正需要独占访问的操作，比如关闭旧文件、打开新文件等
-//            LOGGER.info("Rotating file due to size threshold.");
+            this.tables = tables.apply(new VersionEdit().addTable(reader));
+            this.index = new KeyIndex();
+            this.indexedLength = 0;
             //关闭流me
-            if (this.writerReader != null) {
-                this.writerReader.close();
-            }
-            // 生成滚动后的文件路径。
-            String rotatedFilePath = genFilePath();
-            // 将当前的日志文件移动到滚动后的路径，实质上是进行了重命名。
-            Files.move(Paths.get(getCurrentFilePath()), Paths.get(rotatedFilePath));
-            // 创建一个新的RandomAccessFile实例，用于写入新的日志文件。
-            this.writerReader = new RandomAccessFile(getCurrentFilePath(), RW_MODE);
-            //TODO:异步压缩文件，将table文件去重
-            executorService.submit(() -> {
-                try {
-   //             mergeAndCompressFiles();
-                    compressFile(rotatedFilePath);
-                    this.reloadIndex();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-//            LOGGER.info("File rotation completed.");
-        } catch (IOException e) {
-            e.printStackTrace();
-//            LOGGER.error("File rotation failed.", e);
-            // 异常处理
+            appender.close();
+            // 先删提示文件再删数据文件，崩溃在两者之间时只会少了提示，不会留下过期的提示
+            hintFile.delete();
+            Files.delete(Paths.get(getCurrentFilePath()));
+            this.appender = new FileAppender(getCurrentFilePath());
+            // 新的活跃文件是空的，提示文件中没有可加载的条目
+            this.hintFile = HintFile.open(getCurrentFilePath(), (key, pos, len) -> { });
         } finally {
-            if (this.writerReader != null) {
-                this.writerReader.close();
-            }
-            rotateLock.unlock();
+            indexLock.writeLock().unlock();
         }
-
+        blobStore.addDiscards(discarded);
+        compactionScheduler.trigger();
     }
 
     /**
-     * 压缩文件，保留相同key的最后命令。
+     * 压缩文件，保留相同key的最后命令，并按key排序写成第0层的SSTable。
+     * 源文件是无序的追加日志，读入的命令超过{@link #COMPRESS_RUN_BYTES}时先排序写成临时有序段，
+     * 最后多路归并所有有序段，内存占用不随源文件大小增长；活跃文件滚动时通常一段就能装下，直接写出。
      *
-     * @param filePath 要压缩的文件路径。
+     * @param filePath 长度前缀格式的源文件路径。
+     * @param tablePath 生成的SSTable路径，可以与源文件相同。
+     * @param fileId 生成的SSTable的文件编号，同时作为它的顺序号
+     * @param discarded 被覆盖的值分离命令按blob文件汇总的字节数，新文件生效后由调用方记入垃圾统计
      * @throws IOException 如果在压缩过程中发生I/O错误。
      */
-    private void compressFile(String filePath) throws IOException {
+    private void compressFile(String filePath, String tablePath, long fileId, Map<Long, Long> discarded) throws IOException {
+        // 用于存储最后命令的Map
+        TreeMap<String, Command> lastCommands = new TreeMap<>();
+        long bufferedBytes = 0;
+        List<SSTableReader> runs = new ArrayList<>();
+        List<TableIterator> sources = new ArrayList<>();
         try {
-            // 创建一个临时文件用于写入压缩后的数据
-            String tempFilePath = filePath + ".tmp";
-            RandomAccessFile tempFile = new RandomAccessFile(tempFilePath, RW_MODE);
-
-            // 用于存储最后命令的Map
-            TreeMap<String, Command> lastCommands = new TreeMap<>();
-
             // 读取原始文件并填充lastCommands Map
-            try (RandomAccessFile originalFile = new RandomAccessFile(filePath, RW_MODE)) {
-                byte[] lengthBytes = new byte[4];
-
-                while (originalFile.read(lengthBytes) != -1) {
-                    int cmdLen = ByteBuffer.wrap(lengthBytes).getInt();
+            try (DataInputStream originalFile = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)))) {
+                while (true) {
+                    int cmdLen;
+                    try {
+                        cmdLen = originalFile.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
                     byte[] commandBytes = new byte[cmdLen];
-                    originalFile.read(commandBytes);
-
-                    JSONObject value = JSON.parseObject(new String(commandBytes, StandardCharsets.UTF_8));
-                    Command command = CommandUtil.jsonToCommand(value);
+                    originalFile.readFully(commandBytes);
 
+                    Command command = CommandUtil.decode(commandBytes);
                     if (command != null) {
-                        lastCommands.put(command.getKey(), command);
+                        BlobStore.collectDiscard(lastCommands.put(command.getKey(), command), discarded);
+                        bufferedBytes += cmdLen;
+                    }
+                    if (bufferedBytes >= COMPRESS_RUN_BYTES) {
+                        runs.add(writeRun(tablePath + RUN_SUFFIX + runs.size(), lastCommands.values().iterator()));
+                        lastCommands.clear();
+                        bufferedBytes = 0;
                     }
                 }
             }
 
-            // 将最后命令写入临时文件
-            for (Command command : lastCommands.values()) {
-                byte[] commandBytes = JSONObject.toJSONBytes(command);
-                tempFile.writeInt(commandBytes.length);
-                tempFile.write(commandBytes);
+            Iterator<Command> sorted;
+            if (runs.isEmpty()) {
+                sorted = lastCommands.values().iterator();
+            } else {
+                if (!lastCommands.isEmpty()) {
+                    runs.add(writeRun(tablePath + RUN_SUFFIX + runs.size(), lastCommands.values().iterator()));
+                    lastCommands.clear();
+                }
+                // 后写出的有序段数据更新，归并时排在前面
+                for (int i = runs.size() - 1; i >= 0; i--) {
+                    sources.add(runs.get(i).iterator());
+                }
+                sorted = new MergingIterator(sources, shadowed -> BlobStore.collectDiscard(shadowed, discarded));
             }
-            // 关闭临时文件
-            tempFile.close();
-
 
-            // 替换原始文件为压缩后的文件
-            Files.move(Paths.get(tempFilePath), Paths.get(filePath), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-        }
-        catch (IOException e) {
-            throw new RuntimeException(e);
+            // 将最后命令写入SSTable，写入器先写临时文件再原子替换
+            try (SSTableWriter writer = new SSTableWriter(tablePath, config.getBloomBitsPerKey(), 0, fileId, config.getBlockCodec())) {
+                while (sorted.hasNext()) {
+                    writer.add(sorted.next());
+                }
+                writer.finish();
+            }
         } finally {
-
-        }
-    }
-
-
-private void mergeAndCompressFiles() throws IOException {
-    rotateLock.lock();
-    try {
-        File dataDirFile = new File(dataDir);
-        File[] tableFiles = dataDirFile.listFiles((dir, name) -> name.startsWith(NAME) && name.endsWith(TABLE));
-
-        if (tableFiles == null) {
-            return;
-        }
-        List<File> numberedTableFiles = new ArrayList<>();
-        Pattern pattern = Pattern.compile("^" + NAME + "\\d+\\.table$");
-
-        // 筛选出带有明确序号的文件
-        for (File file : tableFiles) {
-            if (pattern.matcher(file.getName()).matches()) {
-                numberedTableFiles.add(file);
+            for (TableIterator source : sources) {
+                source.close();
             }
-        }
-
-        if (numberedTableFiles.isEmpty() || numberedTableFiles.size() < MERGE_THRESHOLD) {
-            return; // 如果符合条件的文件数量小于合并阈值，则无需合并
-        }
-
-        // 对文件按修改时间升序排序，最早的文件优先合并
-        Collections.sort(numberedTableFiles, Comparator.comparingLong(File::lastModified));
-
-
-        // 使用TreeMap来辅助去重和保持最新命令，键为命令的键，值为命令对象
-        TreeMap<String, Command> mergedCommands = new TreeMap<>();
-
-        // 遍历需要合并的文件
-        for (File file : numberedTableFiles) {
-
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-                byte[] lengthBytes = new byte[4];
-
-                while (raf.read(lengthBytes) != -1) {
-                    int cmdLen = ByteBuffer.wrap(lengthBytes).getInt();
-                    byte[] commandBytes = new byte[cmdLen];
-                    raf.read(commandBytes);
-
-                    JSONObject value = JSON.parseObject(new String(commandBytes, StandardCharsets.UTF_8));
-                    Command command = CommandUtil.jsonToCommand(value);
-
-                    if (command != null) {
-                        // 使用TreeMap的put方法自动去重，仅保留键对应的最新命令
-                        mergedCommands.put(command.getKey(), command);
-                    }
-                }
+            for (SSTableReader run : runs) {
+                run.close();
+                Files.deleteIfExists(Paths.get(run.getFilePath()));
+                Files.deleteIfExists(Paths.get(run.getFilterPath()));
             }
         }
+    }
 
-        // 将合并后的命令写入到一个新的文件中
-        String mergedFilePath = genFilePath();
-        try (RandomAccessFile mergedFile = new RandomAccessFile(mergedFilePath, RW_MODE)) {
-            for (Command command : mergedCommands.values()) {
-                byte[] commandBytes = JSONObject.toJSONBytes(command);
-                mergedFile.writeInt(commandBytes.length);
-                mergedFile.write(commandBytes);
+    /**
+     * 把一段已排序的命令写成临时有序段，不经过块缓存，也不压缩，有序段很快就会被归并删除
+     */
+    private SSTableReader writeRun(String runPath, Iterator<Command> commands) throws IOException {
+        try (SSTableWriter writer = new SSTableWriter(runPath, config.getBloomBitsPerKey(), 0, 0)) {
+            while (commands.hasNext()) {
+                writer.add(commands.next());
             }
+            writer.finish();
         }
-
-        // 删除已合并的旧文件
-        for (File file : numberedTableFiles) {
-            Files.deleteIfExists(file.toPath());
-        }
-    } catch (IOException e) {
-        throw new RuntimeException(e);
-    } finally {
-        rotateLock.unlock();
+        return new SSTableReader(runPath, -1, config.getBloomBitsPerKey(), null);
     }
-}
 
 
     /**
-     * 将内存表中的命令刷新到磁盘。
-     * 此方法确保在并发环境下的安全性，通过同步关键字synchronized限制同时只有一个线程可以执行刷新操作。
-     * 内存表为空时，直接返回，不进行任何操作。
-     * 写入磁盘的过程包括：为每个命令生成字节码、写入长度、写入实际的字节码内容，并在写入完成后更新索引。
-     * 如果在写入过程中发生IOException，将抛出RuntimeException。
+     * 执行一次压缩，由压缩调度器在后台线程调用。
+     * 在读锁内按当前文件集合选出压缩任务，合并和写输出文件都不持有锁，
+     * 只在替换文件列表时短暂持有写锁，之后删除输入文件。
+     *
+     * @return 执行了压缩返回true，无需压缩返回false
+     * @throws IOException 如果在合并过程中发生I/O错误。
      */
-    private void flushMemTableToDisk() throws IOException {
-
-        // 如果内存表为空，则无需进行刷新操作
-        if (immutable.isEmpty()) return; // 如果没有数据需要刷盘，直接返回
+    private boolean compactOnce() throws IOException {
+        rotateLock.lock();
+        try {
+            CompactionTask task;
+            indexLock.readLock().lock();
+            try {
+                task = compactionPicker.pick(tables.all());
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            if (task == null) {
+                // 没有需要压缩的文件时回收blob文件
+                return collectBlobGarbage();
+            }
+            LoggerUtil.debug(LOGGER, logFormat, "compactOnce", task);
+
+            List<SSTableReader> inputs = new ArrayList<>(task.getInputs());
+            inputs.sort(TableSet.LOOKUP_ORDER);
+            // 输入按从新到旧排列，多路归并时同一个key只保留最新的命令，每个输入只驻留一个数据块
+            // 被丢弃的旧版本指向的blob值成为垃圾，压缩结果生效后才记入统计
+            List<TableIterator> sources = new ArrayList<>(inputs.size());
+            Map<Long, Long> discarded = new HashMap<>();
+            List<SSTableReader> outputs;
+            try {
+                for (SSTableReader input : inputs) {
+                    sources.add(input.iterator());
+                }
+                outputs = writeCompactionOutputs(task,
+                        new MergingIterator(sources, shadowed -> BlobStore.collectDiscard(shadowed, discarded)));
+            } finally {
+                for (TableIterator source : sources) {
+                    source.close();
+                }
+            }
 
+            // 只替换参与压缩的文件，活跃文件索引和其他文件都不受影响
+            indexLock.writeLock().lock();
+            try {
+                this.tables = tables.apply(new VersionEdit().removeTables(inputs).addTables(outputs));
+            } finally {
+                indexLock.writeLock().unlock();
+            }
 
-        // 遍历内存表中的每个命令
-        // 遍历内存表，将每个Command写入到磁盘
-        for (HashMap.Entry<String, Command> entry : immutable.entrySet()) {
-            Command command = entry.getValue();
-            // 将命令序列化为JSON字节码
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
-            // 写入命令字节码的长度，用于后续读取时定位命令的起始位置
-            RandomAccessFileUtil.writeInt(this.getCurrentFilePath(), commandBytes.length);
-            // 写入命令字节码到磁盘，并记录写入的位置信息
-            long pos = RandomAccessFileUtil.write(this.getCurrentFilePath(), commandBytes);
-            CommandPos cmdPos = new CommandPos(pos, commandBytes.length,this.getCurrentFilePath());
-            // 将命令的位置信息添加到索引中
-            this.index.put(entry.getKey(), cmdPos);
+            // 删除已合并的旧文件，正在读它们的请求持有引用，映射在最后一个读者释放后才解除
+            for (SSTableReader reader : inputs) {
+                reader.close();
+                Files.deleteIfExists(Paths.get(reader.getFilePath()));
+                Files.deleteIfExists(Paths.get(reader.getFilterPath()));
+                if (blockCache != null) {
+                    blockCache.evictFile(reader.getFileId());
+                }
+            }
+            blobStore.addDiscards(discarded);
+            return true;
+        } finally {
+            rotateLock.unlock();
         }
-
-
-        // 清空内存表，为新的命令预留空间
-        immutable.clear();
-        // 检查是否需要rotate
-        checkAndRotateIfNeeded();
-
     }
 
     /**
-     * 设置键值对。
+     * 回收blob文件，由压缩线程在没有压缩任务时调用。
+     * 按垃圾比例选出达到阈值的文件，逐条检查记录是否仍是该key的最新版本，有效的值合并复制到一个新的blob文件并落盘；
+     * 然后在写锁内再确认一次没有被并发写入覆盖，把新位置作为一批写入追加到预写日志和内存表，
+     * 写锁保证不会用旧值的新位置盖掉并发写入的新值；写入内存表前与用户写入一样经过{@link #makeRoomForWrite()}。
+     * 新位置强制落盘后才提交输出文件、移除并删除旧文件，表文件中指向旧文件的位置此后都已被覆盖，随压缩逐渐消失。
+     * 提交之前崩溃时输出文件没有任何位置指向它，重新打开后整个被记为垃圾。
      *
-     * @param key 键，用于唯一标识一个值。
-     * @param value 值，与键相关联的具体内容。
-     * @throws RuntimeException 如果在设置过程中发生任何异常。
+     * @return 回收了文件返回true，没有需要回收的文件返回false
+     * @throws IOException 读写blob文件或预写日志失败
      */
-    @Override
-    public void set(String key, String value) {
-        // 加锁
-        indexLock.writeLock().lock();
+    private boolean collectBlobGarbage() throws IOException {
+        List<BlobFile> victims = blobStore.pickForGc(config.getBlobGcDiscardRatio());
+        if (victims.isEmpty()) {
+            return false;
+        }
+        // 新位置提交之前输出文件是未提交的，崩溃后整个文件被记为垃圾
+        BlobFile output = blobStore.createUncommitted();
+        // 每个被复制的值原来的位置和新位置
+        List<BlobRefCommand> oldRefs = new ArrayList<>();
+        List<BlobRefCommand> moved = new ArrayList<>();
         try {
-            // 创建SetCommand对象，用于封装设置操作的键值对信息。
-            SetCommand command = new SetCommand(key, value);
-
-            // 获取写锁，以确保并发操作时的线程安全。
-
-                // 在文件中写入命令的长度，用于后续读取时定位命令位置。
-                // TODO://先写内存表，内存表达到一定阀值再写进磁盘
-                // 先更新内存表
-                memTable.put(key, command);
-                // 判断是否需要刷盘
-                if (memTable.size() >= storeThreshold) {
-                    switchMemTable();
-                    flushMemTableToDisk();
+            for (BlobFile victim : victims) {
+                LoggerUtil.debug(LOGGER, logFormat, "collectBlobGarbage",
+                        "blob" + victim.getFileId() + " discard " + victim.getDiscardBytes() + "/" + victim.size());
+                victim.forEach((key, offset, value) -> {
+                    BlobRefCommand oldRef = new BlobRefCommand(key, victim.getFileId(), offset, value.length);
+                    if (isLatestBlob(oldRef)) {
+                        oldRefs.add(oldRef);
+                        moved.add(output.append(key, value));
+                    }
+                });
+            }
+            output.sync();
+
+            List<byte[]> records = new ArrayList<>(moved.size());
+            // 复制之后被覆盖的值在新文件中直接就是垃圾
+            Map<Long, Long> overwritten = new HashMap<>();
+            long lastSeq = 0;
+            if (!moved.isEmpty()) {
+                // 新位置与用户写入一样占用内存表，经过同样的减速和停顿
+                try {
+                    makeRoomForWrite();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            indexLock.writeLock().lock();
+            try {
+                List<String> keys = new ArrayList<>(moved.size());
+                for (int i = 0; i < moved.size(); i++) {
+                    BlobRefCommand ref = moved.get(i);
+                    if (isLatestBlob(oldRefs.get(i))) {
+                        keys.add(ref.getKey());
+                        records.add(CommandUtil.encode(ref));
+                    } else {
+                        BlobStore.collectDiscard(ref, overwritten);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    lastSeq = wal.appendBatch(records);
+                    long seq = lastSeq - records.size();
+                    for (int i = 0; i < records.size(); i++) {
+                        memTable.put(++seq, keys.get(i), records.get(i));
+                    }
+                }
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            blobStore.addDiscards(overwritten);
+            if (!records.isEmpty()) {
+                // 旧文件删除后这批位置是值的唯一来源，不论刷盘策略都必须落盘
+                wal.forceSync(lastSeq);
+            }
+            blobStore.commit(output);
+        } catch (IOException | RuntimeException e) {
+            indexLock.writeLock().lock();
+            try {
+                blobStore.remove(output);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            blobStore.delete(output);
+            throw e;
+        }
+
+        indexLock.writeLock().lock();
+        try {
+            for (BlobFile victim : victims) {
+                blobStore.remove(victim);
+            }
+            if (moved.isEmpty()) {
+                blobStore.remove(output);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        for (BlobFile victim : victims) {
+            blobStore.delete(victim);
+        }
+        if (moved.isEmpty()) {
+            blobStore.delete(output);
+        }
+        return true;
+    }
+
+    /**
+     * 判断key的最新版本是否就是指向这条blob记录的位置，回收时在写锁内调用能排除并发写入
+     */
+    private boolean isLatestBlob(BlobRefCommand ref) {
+        Command latest = getFromMemTables(ref.getKey());
+        if (latest == null) {
+            latest = getFromDisk(ref.getKey());
+        }
+        return latest instanceof BlobRefCommand
+                && ((BlobRefCommand) latest).getFileId() == ref.getFileId()
+                && ((BlobRefCommand) latest).getOffset() == ref.getOffset();
+    }
+
+    /**
+     * 把合并结果按key顺序写到输出层，超过目标大小时切换到新文件。
+     * 输出层之下没有可能含有这些key的更旧文件时，删除命令已经完成了遮住旧值的使命，不再写出；
+     * 之前打开的快照持有的是输入文件，不受影响。
+     * 中途失败时删除已经生成的输出文件，文件列表保持不变。
+     */
+    private List<SSTableReader> writeCompactionOutputs(CompactionTask task, Iterator<Command> commands) throws IOException {
+        List<SSTableReader> outputs = new ArrayList<>();
+        SSTableWriter writer = null;
+        String outputPath = null;
+        try {
+            while (commands.hasNext()) {
+                Command command = commands.next();
+                if (task.isBottommost() && command instanceof RmCommand) {
+                    droppedTombstones.increment();
+                    continue;
                 }
-                // TODO://判断是否需要将内存表中的值写回table
+                if (writer == null) {
+                    outputPath = genFilePath();
+                    writer = new SSTableWriter(outputPath, config.getBloomBitsPerKey(), task.getOutputLevel(),
+                            task.getOutputOrderId(), config.getBlockCodec());
+                }
+                writer.add(command);
+                if (writer.getEstimatedSize() >= task.getMaxOutputFileSize()) {
+                    outputs.add(finishOutput(writer, outputPath));
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                outputs.add(finishOutput(writer, outputPath));
+                writer = null;
+            }
+            return outputs;
+        } catch (IOException | RuntimeException e) {
+            if (writer != null) {
+                writer.close();
+            }
+            for (SSTableReader output : outputs) {
+                output.close();
+                Files.deleteIfExists(Paths.get(output.getFilePath()));
+                Files.deleteIfExists(Paths.get(output.getFilterPath()));
+            }
+            throw e;
+        }
+    }
+
+    private SSTableReader finishOutput(SSTableWriter writer, String outputPath) throws IOException {
+        try {
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        return new SSTableReader(outputPath, parseFileId(new File(outputPath).getName()), config.getBloomBitsPerKey(), blockCache);
+    }
+
+
+    /**
+     * 切换内存表后提交刷盘任务，已有任务在处理时不再重复提交
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(this::flushPending);
+        }
+    }
+
+    /**
+     * 后台刷盘任务：按从旧到新的顺序持久化所有等待中的不可变内存表。
+     * 全部处理完后清除提交标记；清除之后又切换出的内存表若没能重新提交任务，由本任务继续处理。
+     * 失败时记录错误，之后的写入直接失败，等待中的写入被唤醒。
+     */
+    private void flushPending() {
+        try {
+            while (true) {
+                List<MemTable> pending = immutables;
+                if (pending.isEmpty()) {
+                    flushScheduled.set(false);
+                    if (immutables.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                flushMemTableToDisk(pending.get(pending.size() - 1));
+            }
         } catch (Throwable t) {
-            // 如果发生任何异常，抛出运行时异常。
-            throw new RuntimeException(t);
+            LoggerUtil.error(LOGGER, t, logFormat, "flushPending", "flush memtable failed");
+            backgroundError = t;
+        } finally {
+            synchronized (flushMonitor) {
+                flushMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 将一个不可变内存表中的命令刷新到磁盘，只由后台刷盘线程调用。
+     * 追加写入和fsync不持有锁，此时读请求仍从排队中的内存表读到这些数据；
+     * 落盘后在写锁内把位置合并进索引并移除这个内存表，读请求要么在内存表中、要么在索引中找到数据。
+     * 写入磁盘的过程包括：取出每个命令的字节码、写入长度、写入实际的字节码内容，并在写入完成后更新索引。
+     * 不小于值分离阈值的值先追加到blob文件，活跃文件中只写它的位置；blob文件先于活跃文件落盘。
+     */
+    private void flushMemTableToDisk(MemTable frozen) throws IOException {
+        // 本批写入的位置，落盘后合并进索引并追加到提示文件
+        Map<String, CommandPos> batch = new HashMap<>(frozen.size() * 2);
+        // 遍历内存表，将每个Command写入到追加器的缓冲区，由追加器合并成大块写入
+        for (Map.Entry<String, MemTable.Entry> entry : frozen.entries()) {
+            // 内存表中存放的就是序列化后的字节码，直接写出
+            byte[] commandBytes = separateValue(entry.getKey(), entry.getValue().getRecord());
+            // 写入长度前缀和命令字节码，并记录写入的位置信息
+            long pos = appender.append(commandBytes);
+            batch.put(entry.getKey(), new CommandPos(pos, commandBytes.length, this.getCurrentFilePath()));
+        }
+        // 活跃文件落盘后，对应的预写日志段才可以删除
+        blobStore.sync();
+        appender.sync();
+        long flushedLength = appender.size();
+        hintFile.append(batch, flushedLength);
+
+        indexLock.writeLock().lock();
+        try {
+            int fileId = index.fileId(getCurrentFilePath());
+            batch.forEach((key, pos) -> index.put(key, fileId, pos.getPos(), pos.getLen()));
+            this.indexedLength = flushedLength;
+            List<MemTable> remaining = new ArrayList<>(immutables);
+            remaining.remove(frozen);
+            this.immutables = remaining;
         } finally {
-            // 确保在方法退出时释放写锁。
             indexLock.writeLock().unlock();
         }
+        // 指向本批blob文件的位置已在索引中，回收能看到并搬走它们
+        blobStore.releaseFlushed();
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+        // 检查是否需要rotate
+        checkAndRotateIfNeeded();
+        wal.deleteObsolete(frozen.getWalSegmentId());
+    }
+
+    /**
+     * 刷盘时把大值写入blob文件，返回指向它的命令的字节；不需要分离的记录原样返回
+     */
+    private byte[] separateValue(String key, byte[] record) throws IOException {
+        int minBlobSize = config.getMinBlobSize();
+        // 记录比阈值短时值一定更短，不必解码
+        if (minBlobSize <= 0 || record.length < minBlobSize) {
+            return record;
+        }
+        Command command = CommandUtil.decode(record);
+        if (!(command instanceof SetCommand) || ((SetCommand) command).getValue() == null) {
+            return record;
+        }
+        byte[] value = ((SetCommand) command).getValue().getBytes(StandardCharsets.UTF_8);
+        if (value.length < minBlobSize) {
+            return record;
+        }
+        return CommandUtil.encode(blobStore.append(key, value));
+    }
+
+    /**
+     * 设置键值对。
+     *
+     * @param key 键，用于唯一标识一个值。
+     * @param value 值，与键相关联的具体内容。
+     * @throws RuntimeException 如果在设置过程中发生任何异常。
+     */
+    @Override
+    public void set(String key, String value) {
+        // 创建SetCommand对象，用于封装设置操作的键值对信息。
+        writeCommand(new SetCommand(key, value));
+    }
+
+    /**
+     * 写入一条命令：持有共享的读锁追加预写日志并写入内存表，多个写者可以同时进行，
+     * 日志分配的序号决定同一个key的新旧。只有内存表达到阈值需要切换并刷盘时才取写锁。
+     * 释放锁后再等待预写日志落盘，使并发写入可以合并为一次写盘。
+     *
+     * @param command 命令
+     * @throws RuntimeException 如果在写入过程中发生任何异常。
+     */
+    private void writeCommand(Command command) {
+        byte[] record = CommandUtil.encode(command);
+        long seq;
+        try {
+            makeRoomForWrite();
+            // 读锁只与内存表切换互斥，保证日志段与内存表一一对应
+            indexLock.readLock().lock();
+            try {
+                seq = wal.append(record);
+                // 先更新内存表
+                memTable.put(seq, command.getKey(), record);
+                // 新值对读路径可见之后再使缓存失效，并发读到的旧值不会被准入
+                if (valueCache != null) {
+                    valueCache.invalidate(command.getKey());
+                }
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            wal.sync(seq);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 提交一批写入：整批编码后作为一条预写日志记录追加，占用一段连续的序号，
+     * 在一次读锁内全部写入内存表，之后只等待一次日志落盘。
+     * 批内同一个key出现多次时序号大的即后加入的生效。
+     *
+     * @param batch 写入批次
+     * @throws RuntimeException 如果在写入过程中发生任何异常。
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Command> commands = batch.getCommands();
+        List<byte[]> records = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            records.add(CommandUtil.encode(command));
+        }
+        long lastSeq;
+        try {
+            makeRoomForWrite();
+            indexLock.readLock().lock();
+            try {
+                lastSeq = wal.appendBatch(records);
+                long seq = lastSeq - records.size();
+                for (int i = 0; i < records.size(); i++) {
+                    memTable.put(++seq, commands.get(i).getKey(), records.get(i));
+                }
+                if (valueCache != null) {
+                    for (Command command : commands) {
+                        valueCache.invalidate(command.getKey());
+                    }
+                }
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            wal.sync(lastSeq);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 写入前确保内存表有空间：内存表满时切换出去交给后台刷盘，写入线程不做任何磁盘操作。
+     * 等待刷盘的内存表较多时每次写入先等待一小段时间，让刷盘追上写入；
+     * 达到上限时停顿，直到后台刷完一个内存表。
+     */
+    private void makeRoomForWrite() throws IOException, InterruptedException {
+        boolean delayed = false;
+        while (true) {
+            if (backgroundError != null) {
+                throw new IOException("后台刷盘失败，拒绝写入", backgroundError);
+            }
+            int pending = immutables.size();
+            if (!delayed && pending >= config.getSlowdownImmutableMemTables()) {
+                delayed = true;
+                writeSlowdowns.increment();
+                TimeUnit.MICROSECONDS.sleep(config.getWriteSlowdownDelayMicros());
+                continue;
+            }
+            if (memTable.approximateMemoryUsage() < storeThreshold) {
+                return;
+            }
+            if (pending >= config.getMaxImmutableMemTables()) {
+                writeStalls.increment();
+                synchronized (flushMonitor) {
+                    while (immutables.size() >= config.getMaxImmutableMemTables() && backgroundError == null) {
+                        flushMonitor.wait();
+                    }
+                }
+                continue;
+            }
+            boolean switched = false;
+            indexLock.writeLock().lock();
+            try {
+                // 并发写者可能已经完成了切换，只有完成切换的写者提交刷盘
+                if (memTable.approximateMemoryUsage() >= storeThreshold && immutables.size() < config.getMaxImmutableMemTables()) {
+                    switchMemTable();
+                    switched = true;
+                }
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            if (switched) {
+                scheduleFlush();
+            }
+        }
     }
 
 
     /**
      * 根据键获取值。
-     * 此方法用于从存储中检索与给定键相关联的值。它首先通过键从索引中定位命令的位置，
-     * 然后从该位置读取命令的字节数据。最后，它解析命令对象并根据命令类型返回相关的值。
+     * 依次查找内存表、等待刷盘的不可变内存表、活跃文件的hash索引，最后按从新到旧的顺序查找可能包含key的SSTable（第1层起每层最多一个），
+     * 命中的第一个命令即为最新值，删除标记直接返回null。
+     * 内存表的查找不加锁，只有内存表未命中、需要访问磁盘数据时才持有读锁。
      *
      * @param key 需要检索的键。
      * @return 与键相关联的值，如果键不存在或命令类型不支持，则返回null。
@@ -468,103 +1138,592 @@ private void mergeAndCompressFiles() throws IOException {
      */
     @Override
     public String get(String key) {
-            try {
+            long cacheVersion = 0;
+            // 热点值缓存命中时不需要加锁，也不访问任何索引和文件
+            if (valueCache != null) {
+                String cached = valueCache.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+                cacheVersion = valueCache.version(key);
+            }
+            Command cachedCommand;
+            // 上一次没有读到值的位置，重新查找仍得到它时说明blob文件已丢失，不再重试
+            BlobRefCommand missing = null;
+            while (true) {
+                cachedCommand = getFromMemTables(key);
+                if (cachedCommand != null && !(cachedCommand instanceof BlobRefCommand)) {
+                    break;
+                }
+                // 值分离的命令在读锁内读出值，无锁读到的位置所在的blob文件可能已被回收，
+                // 此时新位置已经写入内存表，重新查找即可
+                Command resolved = null;
                 indexLock.readLock().lock();
+                try {
+                    if (cachedCommand == null) {
+                        cachedCommand = getFromDisk(key);
+                    }
+                    if (cachedCommand instanceof BlobRefCommand) {
+                        resolved = readBlob((BlobRefCommand) cachedCommand);
+                    }
+                } finally {
+                    indexLock.readLock().unlock();
+                }
+                if (!(cachedCommand instanceof BlobRefCommand)) {
+                    break;
+                }
+                if (resolved != null) {
+                    cachedCommand = resolved;
+                    break;
+                }
+                BlobRefCommand ref = (BlobRefCommand) cachedCommand;
+                if (missing != null && missing.getFileId() == ref.getFileId()
+                        && missing.getOffset() == ref.getOffset()) {
+                    throw new RuntimeException("blob文件已丢失: " + BlobStore.PREFIX + ref.getFileId()
+                            + BlobStore.SUFFIX + ", key: " + key);
+                }
+                missing = ref;
+            }
+
+            if (cachedCommand instanceof SetCommand) {
+                String value = ((SetCommand) cachedCommand).getValue();
+                // 读取期间有并发写入时版本号已变化，不会准入旧值
+                if (valueCache != null) {
+                    valueCache.admit(key, value, cacheVersion);
+                }
+                return value;
+            }
+            // 删除标记或不存在
+            return null;
+    }
 
-                Command cachedCommand = memTable.get(key);
-                if (cachedCommand == null) {
-                    cachedCommand = immutable.get(key);
+    /**
+     * 先读memTable再从新到旧读等待刷盘的内存表，与切换时的发布顺序相反，切换中的数据不会被漏掉。不加锁
+     *
+     * @return 最新的命令（可能是删除标记或值分离的命令），内存表中没有时返回null
+     */
+    private Command getFromMemTables(String key) {
+        Command command = memTable.get(key);
+        if (command == null) {
+            for (MemTable frozen : immutables) {
+                command = frozen.get(key);
+                if (command != null) {
+                    break;
                 }
+            }
+        }
+        return command;
+    }
 
-                if (cachedCommand != null) {
-                    if (cachedCommand instanceof SetCommand) {
-                        return ((SetCommand) cachedCommand).getValue();
-                    } else if (cachedCommand instanceof RmCommand) {
-                        return null;
+    /**
+     * 读出值分离命令指向的值，换成完整的SET命令。调用方必须持有读锁，回收blob文件需要写锁，读取途中文件不会被移除；
+     * 但位置可能是加锁之前查到的，所在文件已被回收时返回null，调用方应重新查找
+     */
+    private Command readBlob(BlobRefCommand ref) {
+        try {
+            String value = blobStore.read(ref);
+            return value == null ? null : new SetCommand(ref.getKey(), value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 批量获取。先在一次遍历中查值缓存和所有内存表，剩下的key在一次读锁内访问磁盘：
+     * 活跃文件中的记录按偏移排序，相邻的记录合并成一次大块读取；
+     * 之后按从新到旧的顺序逐个SSTable查找仍未找到的key，同一文件中的key排序后一起查，
+     * 落在同一数据块的key只读取和解码该块一次。找到（包括删除标记）的key不再查更旧的文件。
+     *
+     * @param keys 键
+     * @return 存在的key及其值，按传入顺序排列，不存在或已删除的key不出现
+     */
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        // 值缓存命中的key以SET命令的形式与其他来源的结果放在一起
+        Map<String, Command> resolved = new HashMap<>(keys.size() * 2);
+        Map<String, Long> cacheVersions = valueCache == null ? null : new HashMap<>(keys.size() * 2);
+        Set<String> seen = new HashSet<>(keys.size() * 2);
+        List<String> pending = new ArrayList<>();
+        for (String key : keys) {
+            if (!seen.add(key)) {
+                continue;
+            }
+            if (valueCache != null) {
+                String value = valueCache.get(key);
+                if (value != null) {
+                    resolved.put(key, new SetCommand(key, value));
+                    continue;
+                }
+                cacheVersions.put(key, valueCache.version(key));
+            }
+            Command command = getFromMemTables(key);
+            if (command != null) {
+                resolved.put(key, command);
+            } else {
+                pending.add(key);
+            }
+        }
+        if (!pending.isEmpty()) {
+            resolved.putAll(multiGetFromDisk(pending));
+        }
+        // 值分离的命令在一次读锁内读出值，所在blob文件已被回收的留到下面逐个重新查找
+        indexLock.readLock().lock();
+        try {
+            for (Map.Entry<String, Command> entry : resolved.entrySet()) {
+                if (entry.getValue() instanceof BlobRefCommand) {
+                    Command command = readBlob((BlobRefCommand) entry.getValue());
+                    if (command != null) {
+                        entry.setValue(command);
+                    }
+                }
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            Command command = resolved.get(key);
+            if (command instanceof BlobRefCommand) {
+                String value = get(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+                continue;
+            }
+            if (command instanceof SetCommand) {
+                String value = ((SetCommand) command).getValue();
+                Long version = cacheVersions == null ? null : cacheVersions.remove(key);
+                if (version != null) {
+                    valueCache.admit(key, value, version);
+                }
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量在活跃文件和SSTable中查找，持有读锁
+     *
+     * @param pending 待查找的key，互不相同
+     * @return 找到的key及其命令（可能是删除标记）
+     */
+    private Map<String, Command> multiGetFromDisk(List<String> pending) {
+        String[] sorted = pending.toArray(new String[0]);
+        Arrays.sort(sorted);
+        Map<String, Command> found = new HashMap<>(sorted.length * 2);
+        indexLock.readLock().lock();
+        try {
+            // 活跃文件：按偏移排序后合并相邻记录的读取
+            List<Map.Entry<String, CommandPos>> positions = new ArrayList<>();
+            for (String key : sorted) {
+                CommandPos pos = index.get(key);
+                if (pos != null) {
+                    positions.add(new AbstractMap.SimpleImmutableEntry<>(key, pos));
+                }
+            }
+            positions.sort(Comparator.comparingLong(e -> e.getValue().getPos()));
+            int i = 0;
+            while (i < positions.size()) {
+                long start = positions.get(i).getValue().getPos();
+                long end = start + positions.get(i).getValue().getLen();
+                int j = i + 1;
+                while (j < positions.size()) {
+                    CommandPos next = positions.get(j).getValue();
+                    long nextEnd = next.getPos() + next.getLen();
+                    if (next.getPos() - end > MULTI_GET_COALESCE_GAP || nextEnd - start > MULTI_GET_MAX_READ) {
+                        break;
+                    }
+                    end = Math.max(end, nextEnd);
+                    j++;
+                }
+                byte[] span = appender.read(start, (int) (end - start));
+                for (; i < j; i++) {
+                    String key = positions.get(i).getKey();
+                    CommandPos pos = positions.get(i).getValue();
+                    Command command = CommandCodec.decode(ByteBuffer.wrap(span, (int) (pos.getPos() - start), pos.getLen()));
+                    // 索引只存哈希，核对key排除哈希碰撞；槽位被碰撞的key占用时顺序扫描活跃文件
+                    if (command != null && !key.equals(command.getKey())) {
+                        command = scanActiveFileFor(key);
+                    }
+                    if (command != null) {
+                        found.put(key, command);
+                    }
+                }
+            }
+
+            // SSTable：从新到旧，每个文件一次处理所有可能包含的key
+            for (SSTableReader table : tables.all()) {
+                if (found.size() == sorted.length) {
+                    break;
+                }
+                if (table.getEntryCount() == 0) {
+                    continue;
+                }
+                List<String> candidates = new ArrayList<>();
+                // 只看落在文件key范围内的部分
+                int from = lowerBound(sorted, table.getSmallestKey());
+                for (int k = from; k < sorted.length && sorted[k].compareTo(table.getLargestKey()) <= 0; k++) {
+                    String key = sorted[k];
+                    if (found.containsKey(key)) {
+                        continue;
+                    }
+                    // 先问布隆过滤器，一定不存在的文件不做任何磁盘访问
+                    if (table.mayContain(key)) {
+                        candidates.add(key);
+                    } else {
+                        filterStats.recordMiss();
                     }
                 }
+                if (candidates.isEmpty()) {
+                    continue;
+                }
+                Map<String, Command> hits = table.multiGet(candidates);
+                for (String key : candidates) {
+                    Command command = hits.get(key);
+                    if (command != null) {
+                        filterStats.recordHit();
+                        found.put(key, command);
+                    } else {
+                        filterStats.recordFalsePositive();
+                    }
+                }
+            }
+            return found;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 第一个不小于key的元素下标，都小于key时返回数组长度
+     */
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 活跃文件索引的槽位被哈希碰撞的key占用时，顺序扫描已建立索引的部分查找key，调用方需持有读锁
+     */
+    private Command scanActiveFileFor(String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(getCurrentFilePath()), StandardOpenOption.READ)) {
+            return KeyIndex.scanFor(channel, indexedLength, key);
+        }
+    }
+
+    /**
+     * 在活跃文件和SSTable中查找，持有读锁，刷盘和滚动期间不会看到半成品
+     */
+    private Command getFromDisk(String key) {
+            try {
+                indexLock.readLock().lock();
+
                 //对当前活跃的data.table文件的直接访问逻辑
                 CommandPos cmdPos = index.get(key);
-                try {
-                        // 使用获取到的文件长度作为读取长度，从位置0开始读取
-                        byte[] commandBytes = RandomAccessFileUtil.readByIndex(cmdPos.getGen(), cmdPos.getPos(), cmdPos.getLen());
-                        JSONObject value = JSONObject.parseObject(new String(commandBytes));
-                        Command cmd = CommandUtil.jsonToCommand(value);
-                        if (cmd instanceof SetCommand) {
-                            return ((SetCommand) cmd).getValue();
-                        } else if (cmd instanceof RmCommand) {
-                            return null;
-                        }
-
-                } catch (Exception e) {
-                    e.printStackTrace();
+                if (cmdPos != null) {
+                    // 复用追加器的文件句柄定位读取，避免每次打开关闭文件
+                    byte[] commandBytes = appender.read(cmdPos.getPos(), cmdPos.getLen());
+                    Command command = CommandUtil.decode(commandBytes);
+                    // 索引只存哈希，核对key排除哈希碰撞
+                    if (command != null && key.equals(command.getKey())) {
+                        return command;
+                    }
+                    // 槽位被碰撞的key占用，要查的key仍可能在活跃文件中
+                    command = scanActiveFileFor(key);
+                    if (command != null) {
+                        return command;
+                    }
+                }
+                for (SSTableReader table : tables.candidates(key)) {
+                    // 先问布隆过滤器，一定不存在的文件不做任何磁盘访问
+                    if (!table.mayContain(key)) {
+                        filterStats.recordMiss();
+                        continue;
+                    }
+                    Command command = table.get(key);
+                    if (command != null) {
+                        filterStats.recordHit();
+                        return command;
+                    }
+                    filterStats.recordFalsePositive();
                 }
+                return null;
             } catch (Throwable t) {
                 throw new RuntimeException(t);
             } finally {
                 indexLock.readLock().unlock();
             }
-            return null;
     }
 
     /**
-     * 删除指定键的数据。
-     * 使用JSON序列化命令对象，加锁以确保线程安全，将命令写入到日志文件（table）中，并更新索引。
-     * 在出现异常时，抛出运行时异常，并在最终确保释放写锁。
+     * 范围扫描。在读锁内取得各数据源：活跃内存表、从新到旧的不可变内存表、活跃文件、与区间相交的SSTable，
+     * 按从新到旧的顺序交给多路归并，同一个key只取最新的版本，删除标记被跳过。
+     * 内存表和SSTable都是逐条惰性读取，SSTable从起始key所在的块开始读，内存占用与数据源个数成正比；
+     * 只有活跃文件没有有序索引，需要在锁内把区间内的记录读出排序，它的大小受滚动阈值限制。
      *
-     * @param key 要删除的数据的键。
+     * @param startKey 起始key（含），null表示从最小的key开始
+     * @param endKey   结束key（不含），null表示扫描到最大的key
+     * @param limit    最多返回的条数，不大于0表示不限制
+     * @return 惰性的迭代器，用完或中途放弃时需要关闭
      */
     @Override
-    public void rm(String key) {
+    public ScanIterator scan(String startKey, String endKey, int limit) {
+        if (startKey != null && endKey != null && startKey.compareTo(endKey) >= 0) {
+            return ScanIterator.empty();
+        }
+        List<TableIterator> sources = new ArrayList<>();
+        BlobSet blobs = null;
+        indexLock.readLock().lock();
         try {
-            // 创建删除命令对象。
-            RmCommand command = new RmCommand(key);
-            // 将命令对象序列化为JSON字节。
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
-
-            // 获取写锁以确保线程安全。
-            // 加锁
-            indexLock.writeLock().lock();
-            // TODO://先写内存表，内存表达到一定阀值再写进磁盘
-            // 先更新内存表
-            memTable.put(key, command);
-
-            // 判断是否需要刷盘
-            if (memTable.size() >= storeThreshold) {
-                switchMemTable();
-                flushMemTableToDisk();
+            // 锁内固定blob文件，扫描途中回收的文件仍可读
+            blobs = blobStore.pin();
+            sources.add(memTable.iterator(startKey, endKey));
+            for (MemTable frozen : immutables) {
+                sources.add(frozen.iterator(startKey, endKey));
+            }
+            sources.add(activeFileIterator(startKey, endKey));
+            // 按查找顺序即从新到旧，锁内持有文件引用，之后的压缩不会释放正在遍历的文件
+            for (SSTableReader table : tables.all()) {
+                if (table.intersects(startKey, endKey)) {
+                    sources.add(table.iterator(startKey));
+                }
             }
-
-            // TODO://判断是否需要将内存表中的值写回table
-
         } catch (Throwable t) {
-            // 如果出现任何异常，抛出运行时异常。
+            for (TableIterator source : sources) {
+                source.close();
+            }
+            if (blobs != null) {
+                blobs.release();
+            }
             throw new RuntimeException(t);
         } finally {
-            // 确保在方法结束时释放写锁。
+            indexLock.readLock().unlock();
+        }
+        return new MergedScanIterator(new MergingIterator(sources), endKey, limit, blobs);
+    }
+
+    /**
+     * 创建快照。在写锁内取得快照序号和各数据源，此时没有写者正在写入内存表，一批写入不会只有一部分可见：
+     * 当前和等待刷盘的内存表（保留了各个key的历史版本，按序号过滤）、活跃文件索引的副本和一个只读文件句柄、
+     * 当前的SSTable集合（逐个增加引用）和blob文件。之后的刷盘、滚动、压缩和blob回收只替换引擎自己的引用，
+     * 被替换的内存表和文件在快照关闭前仍然可读，快照读不再需要任何锁。
+     *
+     * @return 快照，用完必须关闭
+     */
+    @Override
+    public Snapshot snapshot() {
+        indexLock.writeLock().lock();
+        try {
+            long sequence = wal.getLastSequence();
+            List<MemTable> memTables = new ArrayList<>(immutables.size() + 1);
+            memTables.add(memTable);
+            memTables.addAll(immutables);
+            // 滚动时活跃文件被删除，已经打开的句柄仍能读到快照时刻的内容
+            FileChannel activeFile = indexedLength > 0
+                    ? FileChannel.open(Paths.get(getCurrentFilePath()), StandardOpenOption.READ) : null;
+            for (SSTableReader table : tables.all()) {
+                table.retain();
+            }
+            liveSnapshots.incrementAndGet();
+            return new NormalSnapshot(sequence, memTables, index.copy(), indexedLength, activeFile, tables,
+                    blobStore.pin(), filterStats, liveSnapshots::decrementAndGet);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
             indexLock.writeLock().unlock();
         }
     }
 
+    /**
+     * 读出活跃文件中key在[startKey, endKey)区间内的最新命令，按key排序。调用方必须持有读锁
+     */
+    private TableIterator activeFileIterator(String startKey, String endKey) throws IOException {
+        return activeFileIterator(indexedLength > 0 ? appender.read(0, (int) indexedLength) : new byte[0], startKey, endKey);
+    }
+
+    /**
+     * 解析活跃文件的内容，取出key在[startKey, endKey)区间内的最新命令，按key排序
+     *
+     * @param data 活跃文件已刷盘部分的字节，长度前缀格式
+     */
+    static TableIterator activeFileIterator(byte[] data, String startKey, String endKey) {
+        TreeMap<String, Command> latest = new TreeMap<>();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.remaining() >= 4) {
+            int cmdLen = buffer.getInt();
+            ByteBuffer record = buffer.slice();
+            record.limit(cmdLen);
+            buffer.position(buffer.position() + cmdLen);
+            Command command = CommandCodec.decode(record);
+            if (command != null
+                    && (startKey == null || command.getKey().compareTo(startKey) >= 0)
+                    && (endKey == null || command.getKey().compareTo(endKey) < 0)) {
+                // 同一个key后写入的记录覆盖先写入的
+                latest.put(command.getKey(), command);
+            }
+        }
+        Iterator<Command> it = latest.values().iterator();
+        return new TableIterator() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Command next() {
+                return it.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * 删除指定键的数据。
+     * 删除标记与普通写入一样先写预写日志再写内存表，达到阈值后随内存表一起刷盘。
+     *
+     * @param key 要删除的数据的键。
+     */
+    @Override
+    public void rm(String key) {
+        // 创建删除命令对象。
+        writeCommand(new RmCommand(key));
+    }
+
+
+    /**
+     * @return 布隆过滤器命中统计
+     */
+    public FilterStats getFilterStats() {
+        return filterStats;
+    }
+
+    /**
+     * @return 块缓存，可用于查看命中率，未启用时为null
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * @return blob文件集合，可用于查看文件个数和垃圾字节数
+     */
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
 
-    private void switchMemTable() {
-        immutable = memTable;
-        memTable = new TreeMap<>();
+    /**
+     * @return 热点值缓存，未启用时为null
+     */
+    public ValueCache getValueCache() {
+        return valueCache;
+    }
+
+    /**
+     * @return 因等待刷盘的内存表较多而减速的写入次数
+     */
+    public long getWriteSlowdowns() {
+        return writeSlowdowns.sum();
+    }
+
+    /**
+     * @return 因等待刷盘的内存表达到上限而停顿的写入次数
+     */
+    public long getWriteStalls() {
+        return writeStalls.sum();
+    }
+
+    /**
+     * @return 压缩时丢弃的删除命令条数
+     */
+    public long getDroppedTombstones() {
+        return droppedTombstones.sum();
+    }
+
+    /**
+     * @return 尚未关闭的快照个数
+     */
+    public int getLiveSnapshots() {
+        return liveSnapshots.get();
+    }
+
+    /**
+     * 新建内存表，阈值很小时堆外内存块也相应缩小
+     */
+    private MemTable newMemTable() {
+        return new MemTable((int) Math.min(config.getMemTableArenaBlockBytes(), storeThreshold));
+    }
+
+    /**
+     * 切换内存表，同时滚动预写日志，使旧日志段恰好对应被切换出去的内存表。
+     * 调用方必须持有写锁，此时没有写者正在写入内存表
+     */
+    private void switchMemTable() throws IOException {
+        MemTable frozen = memTable;
+        frozen.freeze(wal.roll());
+        List<MemTable> pending = new ArrayList<>(immutables.size() + 1);
+        pending.add(frozen);
+        pending.addAll(immutables);
+        immutables = pending;
+        memTable = newMemTable();
     }
 /**
  * 关闭当前实例，并释放相关资源。
- * 此方法确保了在关闭过程中，所有的压缩任务得以完成，并且内存中的数据被刷新到磁盘。
- * 如果压缩执行器在指定时间内未能关闭，将强制关闭所有任务。
+ * 此方法确保内存中的数据被刷新到磁盘，并关闭所有打开的SSTable。
  *
  * @throws IOException 如果关闭过程中发生I/O错误。
  */
 @Override
 public void close() throws IOException {
-    // 如果writerReader不为空，则尝试关闭它。
-    if (writerReader != null) {
-        writerReader.close();
+    // 当前内存表也交给后台刷盘，等待所有排队的内存表刷完
+    indexLock.writeLock().lock();
+    try {
+        if (!memTable.isEmpty()) {
+            switchMemTable();
+        }
+    } finally {
+        indexLock.writeLock().unlock();
+    }
+    flushExecutor.execute(this::flushPending);
+    flushExecutor.shutdown();
+    try {
+        flushExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+    }
+    // 再等待正在执行的压缩结束，压缩替换文件列表时需要写锁
+    compactionScheduler.close();
+    indexLock.writeLock().lock();
+    try {
+        appender.close();
+        hintFile.close();
+        for (SSTableReader table : tables.all()) {
+            table.close();
+        }
+        tables = TableSet.EMPTY;
+        blobStore.close();
+        wal.close();
+    } finally {
+        indexLock.writeLock().unlock();
+    }
+    if (backgroundError != null) {
+        throw new IOException("后台刷盘失败，未刷盘的数据保留在预写日志中", backgroundError);
     }
-    flushMemTableToDisk();
     }
 }
 
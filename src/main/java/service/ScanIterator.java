@@ -0,0 +1,37 @@
+package service;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 范围扫描的结果，按key升序逐条产出键值对，删除的key不会出现。
+ * 遍历是惰性的，迭代器持有底层文件的引用；遍历结束时自动释放，中途放弃必须调用{@link #close()}。
+ */
+public interface ScanIterator extends Iterator<Map.Entry<String, String>>, Closeable {
+
+    @Override
+    void close();
+
+    /**
+     * @return 没有任何结果的迭代器，用于空区间
+     */
+    static ScanIterator empty() {
+        return new ScanIterator() {
+            @Override
+            public boolean hasNext() {
+                return false;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package service;
+
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 分页的范围扫描结果，供socket和HTTP接口使用。
+ * 下一页从{@link #getNextKey()}开始继续扫描，为null时表示已经没有更多数据。
+ */
+@Getter
+public class ScanPage {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    /**
+     * 本页的键值对，按key升序
+     */
+    private final LinkedHashMap<String, String> entries;
+
+    /**
+     * 下一页的起始key（含）
+     */
+    private final String nextKey;
+
+    private ScanPage(LinkedHashMap<String, String> entries, String nextKey) {
+        this.entries = entries;
+        this.nextKey = nextKey;
+    }
+
+    /**
+     * 扫描一页。指定前缀时区间再与前缀的范围取交集。
+     * 多读一条用来判断是否还有下一页，读到的那一条的key即为下一页的起始key。
+     *
+     * @param store    存储
+     * @param startKey 起始key（含），null表示从头开始，翻页时传入上一页的nextKey
+     * @param endKey   结束key（不含），null表示不设上界
+     * @param prefix   前缀，null表示不限制
+     * @param limit    每页条数，不大于0时取默认值，超过上限时取上限
+     * @return 本页结果
+     */
+    public static ScanPage fetch(Store store, String startKey, String endKey, String prefix, int limit) {
+        int pageSize = limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+        if (prefix != null) {
+            if (startKey == null || startKey.compareTo(prefix) < 0) {
+                startKey = prefix;
+            }
+            String prefixEnd = Store.prefixEnd(prefix);
+            if (endKey == null || (prefixEnd != null && prefixEnd.compareTo(endKey) < 0)) {
+                endKey = prefixEnd;
+            }
+        }
+        LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+        String nextKey = null;
+        try (ScanIterator it = store.scan(startKey, endKey, pageSize + 1)) {
+            while (it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                if (entries.size() == pageSize) {
+                    nextKey = entry.getKey();
+                    break;
+                }
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new ScanPage(entries, nextKey);
+    }
+}
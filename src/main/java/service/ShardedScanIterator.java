@@ -0,0 +1,87 @@
+package service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 归并各分片的扫描结果。每个分片的结果按key升序，分片之间key不重叠，
+ * 小顶堆按当前key排序，每次取出最小的一条后从同一分片补充下一条。
+ */
+class ShardedScanIterator implements ScanIterator {
+
+    private final List<ScanIterator> sources;
+    private final PriorityQueue<Head> heap;
+    private final int limit;
+    private int returned;
+    private boolean closed;
+
+    /**
+     * @param sources 各分片的扫描结果，关闭时一起关闭
+     * @param limit   最多返回的条数，不大于0表示不限制
+     */
+    ShardedScanIterator(List<ScanIterator> sources, int limit) {
+        this.sources = sources;
+        this.limit = limit;
+        this.heap = new PriorityQueue<>(Math.max(1, sources.size()));
+        for (ScanIterator source : sources) {
+            if (source.hasNext()) {
+                heap.add(new Head(source.next(), source));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (heap.isEmpty() || (limit > 0 && returned >= limit)) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Head head = heap.poll();
+        Map.Entry<String, String> entry = head.entry;
+        if (head.source.hasNext()) {
+            head.entry = head.source.next();
+            heap.add(head);
+        }
+        returned++;
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            heap.clear();
+            for (ScanIterator source : sources) {
+                source.close();
+            }
+        }
+    }
+
+    private static final class Head implements Comparable<Head> {
+        private Map.Entry<String, String> entry;
+        private final ScanIterator source;
+
+        Head(Map.Entry<String, String> entry, ScanIterator source) {
+            this.entry = entry;
+            this.source = source;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return entry.getKey().compareTo(other.entry.getKey());
+        }
+    }
+}
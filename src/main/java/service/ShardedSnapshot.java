@@ -0,0 +1,60 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ShardedStore}的快照，由各分片的快照组成，按key路由到所在分片的快照读取。
+ * 每个分片内是一致的时刻，分片之间是依次创建的，不是同一时刻。
+ */
+class ShardedSnapshot implements Snapshot {
+
+    private final ShardedStore store;
+    private final List<NormalSnapshot> snapshots;
+
+    /**
+     * @param snapshots 按分片编号排列的快照，关闭时一起关闭
+     */
+    ShardedSnapshot(ShardedStore store, List<NormalSnapshot> snapshots) {
+        this.store = store;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * 各分片的写入序号互相独立，没有统一的序号，只能按分片查看
+     *
+     * @param shard 分片编号
+     * @return 该分片快照的序号
+     */
+    public long getShardSequence(int shard) {
+        return snapshots.get(shard).getSequence();
+    }
+
+    @Override
+    public String get(String key) {
+        return snapshots.get(store.shardOf(key)).get(key);
+    }
+
+    @Override
+    public ScanIterator scan(String startKey, String endKey, int limit) {
+        List<ScanIterator> sources = new ArrayList<>(snapshots.size());
+        try {
+            for (Snapshot snapshot : snapshots) {
+                sources.add(snapshot.scan(startKey, endKey, limit));
+            }
+        } catch (RuntimeException e) {
+            for (ScanIterator source : sources) {
+                source.close();
+            }
+            throw e;
+        }
+        return new ShardedScanIterator(sources, limit);
+    }
+
+    @Override
+    public void close() {
+        for (Snapshot snapshot : snapshots) {
+            snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package service;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按key哈希分片的存储，把key分到N个互相独立的{@link NormalStore}上。
+ * <p>
+ * 每个分片在dataDir下有自己的子目录shard-编号，各自拥有内存表、读写锁、预写日志、活跃文件、刷盘线程和压缩线程，
+ * 不同分片上的写入完全并行。分片数在第一次打开时写入dataDir/SHARDS，之后必须以相同的分片数打开，
+ * 否则key会被路由到错误的分片；有SHARDS文件的目录也不能再以不分片的{@link NormalStore}打开。
+ * <p>
+ * 跨分片的操作：
+ * <ul>
+ *     <li>批量获取和批量写入按分片拆开，多个分片时在共享线程池上并行执行</li>
+ *     <li>批量写入在每个分片内原子，整批跨分片时不保证原子</li>
+ *     <li>范围扫描对各分片的有序结果做多路归并，分片之间key不重叠，无需去重</li>
+ *     <li>快照由各分片的快照组成，每个分片内是一致的时刻，分片之间不是同一时刻</li>
+ * </ul>
+ * 同一个{@link StoreConfig}用于每个分片，内存表、块缓存等容量都是单个分片的。
+ */
+public class ShardedStore implements Store {
+
+    public static final String SHARD_DIR_PREFIX = "shard-";
+    static final String SHARDS_FILE = "SHARDS";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ShardedStore.class);
+    private final String logFormat = "[ShardedStore][{}]: {}";
+
+    private final NormalStore[] shards;
+
+    /**
+     * 跨分片请求的并行执行线程池
+     */
+    private final ExecutorService executor;
+
+    public ShardedStore(String dataDir, int shardCount) {
+        this(dataDir, shardCount, new StoreConfig());
+    }
+
+    /**
+     * @param dataDir    数据目录
+     * @param shardCount 分片数，已有数据时必须与第一次打开时相同
+     * @param config     每个分片使用的配置
+     */
+    public ShardedStore(String dataDir, int shardCount, StoreConfig config) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("分片数必须大于0: " + shardCount);
+        }
+        File dir = new File(dataDir);
+        if (!dir.exists()) {
+            LoggerUtil.info(LOGGER, logFormat, "ShardedStore", "dataDir isn't exist,creating...");
+            dir.mkdirs();
+        }
+        checkShardCount(dir, shardCount);
+        this.executor = Executors.newFixedThreadPool(Math.min(shardCount, Runtime.getRuntime().availableProcessors()),
+                new ThreadFactory() {
+                    private final AtomicInteger seq = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "shard-io-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.shards = new NormalStore[shardCount];
+        // 各分片互相独立，并行打开，启动恢复时间取决于最慢的分片
+        List<Future<NormalStore>> opening = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            String shardDir = dataDir + File.separator + String.format(SHARD_DIR_PREFIX + "%03d", i);
+            opening.add(executor.submit(() -> new NormalStore(shardDir, config)));
+        }
+        RuntimeException failure = null;
+        for (int i = 0; i < shardCount; i++) {
+            try {
+                shards[i] = await(opening.get(i));
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            // 有分片打开失败时关闭已经打开的分片
+            for (NormalStore shard : shards) {
+                closeQuietly(shard);
+            }
+            executor.shutdown();
+            throw failure;
+        }
+    }
+
+    /**
+     * 校验或记录分片数。未分片的数据目录（根目录下已有活跃文件或预写日志）不能直接以分片方式打开
+     */
+    private static void checkShardCount(File dir, int shardCount) {
+        File shardsFile = new File(dir, SHARDS_FILE);
+        try {
+            if (shardsFile.exists()) {
+                int existing;
+                try (DataInputStream in = new DataInputStream(new FileInputStream(shardsFile))) {
+                    existing = in.readInt();
+                }
+                if (existing != shardCount) {
+                    throw new IllegalStateException("数据目录" + dir + "的分片数为" + existing + "，不能以" + shardCount + "个分片打开");
+                }
+                return;
+            }
+            String[] unsharded = dir.list((d, name) -> NormalStore.isEngineFile(name));
+            if (unsharded != null && unsharded.length > 0) {
+                throw new IllegalStateException("数据目录" + dir + "中已有未分片的数据，不能以分片方式打开");
+            }
+            try (FileOutputStream fileOut = new FileOutputStream(shardsFile);
+                 DataOutputStream out = new DataOutputStream(fileOut)) {
+                out.writeInt(shardCount);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * key所在的分片。String.hashCode的算法由语言规范固定，重启后路由不变；
+     * 再做一次混淆，避免相近的key集中在少数分片
+     */
+    int shardOf(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards.length);
+    }
+
+    private NormalStore shard(String key) {
+        return shards[shardOf(key)];
+    }
+
+    @Override
+    public void set(String key, String value) {
+        shard(key).set(key, value);
+    }
+
+    @Override
+    public String get(String key) {
+        return shard(key).get(key);
+    }
+
+    @Override
+    public void rm(String key) {
+        shard(key).rm(key);
+    }
+
+    /**
+     * 按分片拆开后并行批量获取，每个分片内部仍按{@link NormalStore#multiGet}合并磁盘读取
+     */
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        Map<Integer, List<String>> grouped = new HashMap<>();
+        for (String key : keys) {
+            grouped.computeIfAbsent(shardOf(key), i -> new ArrayList<>()).add(key);
+        }
+        Map<String, String> found = new HashMap<>(keys.size() * 2);
+        if (grouped.size() == 1) {
+            Map.Entry<Integer, List<String>> only = grouped.entrySet().iterator().next();
+            found.putAll(shards[only.getKey()].multiGet(only.getValue()));
+        } else {
+            List<Future<Map<String, String>>> parts = new ArrayList<>(grouped.size());
+            for (Map.Entry<Integer, List<String>> group : grouped.entrySet()) {
+                NormalStore shard = shards[group.getKey()];
+                parts.add(executor.submit(() -> shard.multiGet(group.getValue())));
+            }
+            for (Future<Map<String, String>> part : parts) {
+                found.putAll(await(part));
+            }
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            String value = found.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按分片拆成子批次并行提交，每个子批次在所在分片内原子；任一分片失败时抛出异常，其他分片的子批次可能已经生效
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<Integer, WriteBatch> grouped = new HashMap<>();
+        for (Command command : batch.getCommands()) {
+            WriteBatch part = grouped.computeIfAbsent(shardOf(command.getKey()), i -> new WriteBatch());
+            if (command instanceof SetCommand) {
+                part.set(command.getKey(), ((SetCommand) command).getValue());
+            } else if (command instanceof RmCommand) {
+                part.rm(command.getKey());
+            }
+        }
+        if (grouped.size() == 1) {
+            Map.Entry<Integer, WriteBatch> only = grouped.entrySet().iterator().next();
+            shards[only.getKey()].write(only.getValue());
+            return;
+        }
+        List<Future<?>> parts = new ArrayList<>(grouped.size());
+        for (Map.Entry<Integer, WriteBatch> group : grouped.entrySet()) {
+            NormalStore shard = shards[group.getKey()];
+            parts.add(executor.submit(() -> shard.write(group.getValue())));
+        }
+        for (Future<?> part : parts) {
+            await(part);
+        }
+    }
+
+    /**
+     * 对各分片的扫描结果做多路归并。每个分片最多取limit条，归并后再截取limit条
+     */
+    @Override
+    public ScanIterator scan(String startKey, String endKey, int limit) {
+        List<ScanIterator> sources = new ArrayList<>(shards.length);
+        try {
+            for (NormalStore shard : shards) {
+                sources.add(shard.scan(startKey, endKey, limit));
+            }
+        } catch (RuntimeException e) {
+            for (ScanIterator source : sources) {
+                source.close();
+            }
+            throw e;
+        }
+        return new ShardedScanIterator(sources, limit);
+    }
+
+    /**
+     * 依次创建每个分片的快照，每个分片内是一致的时刻，分片之间不是同一时刻
+     */
+    @Override
+    public Snapshot snapshot() {
+        List<NormalSnapshot> snapshots = new ArrayList<>(shards.length);
+        try {
+            for (NormalStore shard : shards) {
+                snapshots.add((NormalSnapshot) shard.snapshot());
+            }
+        } catch (RuntimeException e) {
+            for (Snapshot snapshot : snapshots) {
+                snapshot.close();
+            }
+            throw e;
+        }
+        return new ShardedSnapshot(this, snapshots);
+    }
+
+    /**
+     * @return 分片个数
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return 第i个分片，可用于查看各分片的统计
+     */
+    public NormalStore getShard(int i) {
+        return shards[i];
+    }
+
+    /**
+     * 并行关闭所有分片，每个分片都会刷完内存表；有分片关闭失败时在全部关闭后抛出第一个异常
+     */
+    @Override
+    public void close() throws IOException {
+        List<Future<?>> closing = new ArrayList<>(shards.length);
+        for (NormalStore shard : shards) {
+            closing.add(executor.submit(() -> {
+                shard.close();
+                return null;
+            }));
+        }
+        IOException failure = null;
+        for (Future<?> future : closing) {
+            try {
+                await(future);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+                }
+            }
+        }
+        executor.shutdown();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void closeQuietly(NormalStore shard) {
+        if (shard == null) {
+            return;
+        }
+        try {
+            shard.close();
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, logFormat, "closeQuietly", "close shard failed");
+        }
+    }
+
+    /**
+     * 等待分片上的任务完成，任务的异常原样抛出，受检异常包装为RuntimeException
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package service;
+
+import java.io.Closeable;
+
+/**
+ * 存储在某个时刻的只读视图：创建时已经完成的写入全部可见，之后的写入全部不可见，
+ * 一批写入要么整批可见要么整批不可见。
+ * 快照持有创建时刻的内存表和文件的引用，这些数据在快照关闭前不会被刷盘、滚动或压缩释放，用完必须调用{@link #close()}。
+ */
+public interface Snapshot extends Closeable {
+
+    /**
+     * 按快照读取
+     *
+     * @param key 键
+     * @return 快照时刻的值，不存在或已删除返回null
+     */
+    String get(String key);
+
+    /**
+     * 按快照扫描[startKey, endKey)区间内的键值对，参数含义同{@link Store#scan}
+     *
+     * @return 惰性的迭代器，用完或中途放弃时需要关闭；快照关闭后不能再遍历
+     */
+    ScanIterator scan(String startKey, String endKey, int limit);
+
+    /**
+     * 按快照扫描以prefix开头的所有键值对
+     */
+    default ScanIterator prefixScan(String prefix) {
+        return scan(prefix, Store.prefixEnd(prefix), 0);
+    }
+
+    @Override
+    void close();
+}
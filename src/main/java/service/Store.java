@@ -9,6 +9,8 @@ package service;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 public interface Store extends Closeable {
     void set(String key, String value);
@@ -16,5 +18,80 @@ public interface Store extends Closeable {
     String get(String key);
 
     void rm(String key);
+
+    /**
+     * 批量获取多个key的值
+     *
+     * @param keys 键
+     * @return 存在的key及其值，按传入顺序排列，不存在或已删除的key不出现
+     */
+    Map<String, String> multiGet(Collection<String> keys);
+
+    /**
+     * 原子地提交一批写入：作为一条日志记录追加，崩溃后整批生效或整批丢弃
+     *
+     * @param batch 写入批次
+     */
+    void write(WriteBatch batch);
+
+    /**
+     * 按key升序扫描[startKey, endKey)区间内的键值对，已删除的key被跳过；startKey不小于endKey时区间为空。
+     *
+     * @param startKey 起始key（含），null表示从最小的key开始
+     * @param endKey   结束key（不含），null表示扫描到最大的key
+     * @param limit    最多返回的条数，不大于0表示不限制
+     * @return 惰性的迭代器，用完或中途放弃时需要关闭
+     */
+    ScanIterator scan(String startKey, String endKey, int limit);
+
+    /**
+     * 创建当前时刻的快照，之后的写入对快照不可见。快照读不持有引擎锁，长时间的扫描和备份不会阻塞写入，
+     * 但快照会固定它需要的内存表和文件，用完必须关闭。
+     *
+     * @return 快照
+     */
+    Snapshot snapshot();
+
+    /**
+     * 扫描以prefix开头的所有键值对
+     *
+     * @param prefix 前缀
+     * @return 惰性的迭代器，用完或中途放弃时需要关闭
+     */
+    default ScanIterator prefixScan(String prefix) {
+        return scan(prefix, prefixEnd(prefix), 0);
+    }
+
+    /**
+     * 按配置打开存储：分片数大于1时为{@link ShardedStore}，否则为{@link NormalStore}
+     *
+     * @param dataDir 数据目录
+     * @param config  配置
+     * @return 存储
+     */
+    static Store open(String dataDir, StoreConfig config) {
+        if (config.getShardCount() > 1) {
+            return new ShardedStore(dataDir, config.getShardCount(), config);
+        }
+        return new NormalStore(dataDir, config);
+    }
+
+    /**
+     * 计算前缀扫描的结束key：所有以prefix开头的key都小于它。
+     * 去掉末尾无法再加一的字符后，把最后一个字符加一；前缀为空或全是最大字符时返回null，表示不设上界。
+     *
+     * @param prefix 前缀
+     * @return 结束key（不含）
+     */
+    static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
 //    void exit() throws IOException;
 }
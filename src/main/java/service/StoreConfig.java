@@ -0,0 +1,160 @@
+package service;
+
+import lombok.Getter;
+import lombok.Setter;
+import service.compaction.CompactionStyle;
+import service.sstable.BlockCodec;
+import service.sstable.DeflateBlockCodec;
+import service.wal.SyncPolicy;
+
+/**
+ * 存储引擎的可调参数，默认值适合单机小规模使用。
+ */
+@Setter
+@Getter
+public class StoreConfig {
+    /**
+     * 分片数，通过{@link Store#open}打开时大于1则使用{@link ShardedStore}，每个分片单独使用本配置的其余参数。
+     * 数据目录第一次打开后不能再修改
+     */
+    private int shardCount = 1;
+
+    /**
+     * 预写日志刷盘策略
+     */
+    private SyncPolicy walSyncPolicy = SyncPolicy.INTERVAL;
+
+    /**
+     * INTERVAL策略下的fsync间隔，单位毫秒
+     */
+    private long walSyncIntervalMs = 100;
+
+    /**
+     * 内存表持久化阈值，单位字节，按key、值和覆盖写入的旧值估算。
+     * 有预写日志兜底后不再需要用很小的阈值来限制丢数据
+     */
+    private long memTableBytes = 4L * 1024 * 1024;
+
+    /**
+     * 活跃data.table滚动为SSTable的大小阈值，单位字节。小于memTableBytes时按memTableBytes处理，
+     * 否则几乎每次刷盘都会滚动，活跃文件的索引和提示文件形同虚设
+     */
+    private long activeFileBytes = 16L * 1024 * 1024;
+
+    /**
+     * 内存表堆外内存区每次申请的块大小，单位字节，超过的记录单独占一块
+     */
+    private int memTableArenaBlockBytes = 1024 * 1024;
+
+    /**
+     * 布隆过滤器每个key占用的位数，10位误判率约1%，越小过滤效果越差
+     */
+    private int bloomBitsPerKey = 10;
+
+    /**
+     * SSTable数据块的压缩算法，null表示不压缩。每个块单独压缩，点查只解压一个块；
+     * 压缩级别通过{@link DeflateBlockCodec}的构造参数设置，自定义算法需先在{@link service.sstable.BlockCodecs}中注册
+     */
+    private BlockCodec blockCodec = new DeflateBlockCodec();
+
+    /**
+     * 值分离阈值，单位字节：刷盘时不小于该大小的值写入blob文件，表文件中只存位置，压缩不再重写这些值。
+     * 0表示不分离，已经写入blob文件的值仍然可读
+     */
+    private int minBlobSize = 1024;
+
+    /**
+     * 单个blob文件的大小上限，单位字节，也是回收的粒度
+     */
+    private long blobFileBytes = 16L * 1024 * 1024;
+
+    /**
+     * blob文件中被覆盖或删除的字节占比达到该值时回收，有效的值搬到新文件后删除旧文件
+     */
+    private double blobGcDiscardRatio = 0.5;
+
+    /**
+     * 块缓存容量，单位字节，0表示不启用
+     */
+    private long blockCacheBytes = 32L * 1024 * 1024;
+
+    /**
+     * 热点值缓存的最大条目数，0表示不启用
+     */
+    private int valueCacheMaxEntries = 0;
+
+    /**
+     * 热点值缓存的最大估算字节数
+     */
+    private long valueCacheMaxBytes = 16L * 1024 * 1024;
+
+    /**
+     * 压缩策略
+     */
+    private CompactionStyle compactionStyle = CompactionStyle.LEVELED;
+
+    /**
+     * 分层压缩：第0层文件数达到该值时触发向第1层的压缩
+     */
+    private int level0FileNumTrigger = 4;
+
+    /**
+     * 分层压缩：第1层的总大小上限，单位字节
+     */
+    private long maxBytesForLevelBase = 10L * 1024 * 1024;
+
+    /**
+     * 分层压缩：相邻两层容量上限的倍数
+     */
+    private int maxBytesForLevelMultiplier = 10;
+
+    /**
+     * 分层压缩：层数，最后一层没有容量上限
+     */
+    private int numLevels = 7;
+
+    /**
+     * 分层压缩：单个输出文件的目标大小，单位字节
+     */
+    private long targetFileSizeBytes = 2L * 1024 * 1024;
+
+    /**
+     * 按大小分级压缩：一次至少合并的文件数
+     */
+    private int sizeTieredMinMergeWidth = 4;
+
+    /**
+     * 按大小分级压缩：一次最多合并的文件数
+     */
+    private int sizeTieredMaxMergeWidth = 32;
+
+    /**
+     * 删除命令占比不低于该值的文件在没有其他压缩任务时优先压缩，使删除命令尽快下沉到能被丢弃的位置；大于1时不按删除密度压缩
+     */
+    private double tombstoneCompactionRatio = 0.5;
+
+    /**
+     * 按删除密度压缩时文件中删除命令的最少条数，避免反复压缩很小的文件
+     */
+    private long tombstoneCompactionMinCount = 1000;
+
+    /**
+     * 启动恢复时并行打开table文件的线程数
+     */
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 等待后台刷盘的不可变内存表个数上限，达到上限时写入停顿，直到有内存表刷完
+     */
+    private int maxImmutableMemTables = 4;
+
+    /**
+     * 等待刷盘的不可变内存表达到该个数时开始减速写入
+     */
+    private int slowdownImmutableMemTables = 3;
+
+    /**
+     * 减速期间每次写入前的等待时间，单位微秒
+     */
+    private long writeSlowdownDelayMicros = 1000;
+}
@@ -0,0 +1,48 @@
+package service;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一组写入，通过{@link Store#write(WriteBatch)}一次性提交。
+ * 同一批的命令作为一条预写日志记录追加，崩溃恢复时要么全部回放、要么全部丢弃；
+ * 批内同一个key出现多次时后面的覆盖前面的。非线程安全。
+ */
+public class WriteBatch {
+
+    private final List<Command> commands = new ArrayList<>();
+
+    public WriteBatch set(String key, String value) {
+        commands.add(new SetCommand(key, value));
+        return this;
+    }
+
+    public WriteBatch rm(String key) {
+        commands.add(new RmCommand(key));
+        return this;
+    }
+
+    /**
+     * @return 按加入顺序排列的命令
+     */
+    public List<Command> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    public void clear() {
+        commands.clear();
+    }
+}
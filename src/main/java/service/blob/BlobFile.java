@@ -0,0 +1,208 @@
+package service.blob;
+
+import model.command.BlobRefCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.FileAppender;
+import utils.LoggerUtil;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * blob文件，只追加的值日志。
+ * <p>
+ * 每条记录由{@link FileAppender}加上长度前缀：[int len][int keyLen][key][value]，
+ * 表文件中的{@link BlobRefCommand}直接指向value部分，读取只需一次定位读；记录中的key只供回收时判断值是否仍有效。
+ * 文件只在创建它的那次打开中追加，重新打开后只读，崩溃留下的半条记录只可能出现在文件末尾。
+ * <p>
+ * 引用计数与{@link service.sstable.SSTableReader}相同：扫描和快照通过{@link #retain()}/{@link #release()}持有文件，
+ * 回收后最后一个读者释放时才关闭句柄。
+ */
+public class BlobFile implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobFile.class);
+    private static final String logFormat = "[BlobFile][{}]: {}";
+
+    /**
+     * 顺序遍历记录的回调
+     */
+    public interface RecordVisitor {
+        /**
+         * @param key    记录的key
+         * @param offset value在文件中的起始位置，与指向它的{@link BlobRefCommand#getOffset()}相同
+         * @param value  value的字节
+         */
+        void visit(String key, long offset, byte[] value) throws IOException;
+    }
+
+    private final String filePath;
+    private final long fileId;
+    private final FileAppender appender;
+
+    /**
+     * 已被覆盖或删除的记录字节数，由压缩丢弃旧版本时累加
+     */
+    private final AtomicLong discardBytes = new AtomicLong();
+
+    /**
+     * 引用计数，初始1为创建者持有
+     */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    BlobFile(String filePath, long fileId) throws IOException {
+        this.filePath = filePath;
+        this.fileId = fileId;
+        this.appender = new FileAppender(filePath);
+    }
+
+    /**
+     * 追加一个值，只由一个线程调用。返回的位置在{@link #sync()}之后才能写入表文件
+     *
+     * @param key   键
+     * @param value 值的UTF-8字节
+     * @return 指向值的命令
+     * @throws IOException 写入失败
+     */
+    public BlobRefCommand append(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + keyBytes.length + value.length);
+        record.putInt(keyBytes.length).put(keyBytes).put(value);
+        long recordPos = appender.append(record.array());
+        return new BlobRefCommand(key, fileId, recordPos + 4 + keyBytes.length, value.length);
+    }
+
+    /**
+     * 写出缓冲区并fsync
+     */
+    public void sync() throws IOException {
+        appender.sync();
+    }
+
+    /**
+     * 定位读取一个值，调用方需持有引用或引擎的读锁
+     */
+    public String read(long offset, int len) throws IOException {
+        return new String(appender.read(offset, len), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 从头顺序遍历所有完整的记录，末尾没写完的记录被忽略
+     *
+     * @param visitor 回调
+     * @throws IOException 读取失败
+     */
+    public void forEach(RecordVisitor visitor) throws IOException {
+        appender.flush();
+        long end = appender.size();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath), 64 * 1024))) {
+            long pos = 0;
+            while (pos + 4 <= end) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (len < 4 || pos + 4 + len > end) {
+                    break;
+                }
+                int keyLen = in.readInt();
+                byte[] keyBytes = new byte[keyLen];
+                in.readFully(keyBytes);
+                byte[] value = new byte[len - 4 - keyLen];
+                in.readFully(value);
+                visitor.visit(new String(keyBytes, StandardCharsets.UTF_8), pos + 4 + 4 + keyLen, value);
+                pos += 4 + len;
+            }
+        }
+    }
+
+    /**
+     * @return 一条记录在文件中占用的字节数，用于统计垃圾
+     */
+    static long recordSize(BlobRefCommand ref) {
+        return 4 + 4 + ref.getKey().getBytes(StandardCharsets.UTF_8).length + ref.getLen();
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    /**
+     * @return 文件大小，包含缓冲区中尚未写出的数据
+     */
+    public long size() {
+        return appender.size();
+    }
+
+    public long getDiscardBytes() {
+        return discardBytes.get();
+    }
+
+    void addDiscardBytes(long bytes) {
+        discardBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return 垃圾字节占文件大小的比例
+     */
+    public double discardRatio() {
+        long size = size();
+        return size == 0 ? 0 : (double) discardBytes.get() / size;
+    }
+
+    /**
+     * 增加一个读者引用
+     *
+     * @return 文件已被释放时返回false
+     */
+    public boolean retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时关闭文件
+     */
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            try {
+                appender.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "release", "close " + filePath + " failed");
+            }
+        }
+    }
+
+    /**
+     * 释放创建者持有的引用，仍有读者时延迟到最后一个读者释放
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+}
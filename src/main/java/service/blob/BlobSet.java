@@ -0,0 +1,62 @@
+package service.blob;
+
+import model.command.BlobRefCommand;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 某一时刻被固定的blob文件，供不持有引擎锁的扫描和快照读取值。
+ * 固定之后回收新建的文件不在其中，从集合中现查；它们在读者看到指向它们的位置时还不可能被回收。
+ */
+public class BlobSet {
+
+    private final BlobStore store;
+    private final Map<Long, BlobFile> pinned;
+    private boolean released;
+
+    BlobSet(BlobStore store, Map<Long, BlobFile> pinned) {
+        this.store = store;
+        this.pinned = pinned;
+    }
+
+    /**
+     * @param ref 值的位置
+     * @return 值
+     * @throws IOException 读取失败，或所在文件既未被固定也已不在集合中
+     */
+    public String read(BlobRefCommand ref) throws IOException {
+        BlobFile file = pinned.get(ref.getFileId());
+        if (file != null) {
+            return file.read(ref.getOffset(), ref.getLen());
+        }
+        String value = store.read(ref);
+        if (value == null) {
+            throw new IOException("blob文件已被回收: " + ref.getFileId());
+        }
+        return value;
+    }
+
+    /**
+     * 再固定一份同样的文件，快照上的每次扫描各自持有一份，与快照独立释放
+     */
+    public BlobSet copy() {
+        for (BlobFile file : pinned.values()) {
+            file.retain();
+        }
+        return new BlobSet(store, pinned);
+    }
+
+    /**
+     * 释放固定的全部文件，重复调用无效
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (BlobFile file : pinned.values()) {
+            file.release();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package service.blob;
+
+import model.command.BlobRefCommand;
+import model.command.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 数据目录下全部blob文件的集合，负责值分离的写入、读取和垃圾统计。
+ * <p>
+ * 刷盘线程把大值追加到当前的活跃blob文件，达到大小上限后换一个新文件；重新打开存储时总是从新文件开始追加。
+ * 压缩丢弃被覆盖或删除的旧版本时，把它们指向的记录大小记为所在文件的垃圾，
+ * 垃圾统计保存在blob.stats中，每次变化后整体重写。回收线程据此选出垃圾比例最高的文件。
+ * 回收输出文件在指向它的新位置提交之前标记为未提交，崩溃后重新打开时整个文件记为垃圾，由下一次回收删除，不会泄漏。
+ * <p>
+ * 文件从集合中移除（回收）由引擎在写锁内进行，持有引擎读锁的读者读到的位置所在的文件一定还在集合中；
+ * 不持锁的扫描和快照先通过{@link #pin()}固定当时的全部文件。
+ */
+public class BlobStore implements Closeable {
+
+    public static final String PREFIX = "blob";
+    public static final String SUFFIX = ".blob";
+    private static final String STATS = "blob.stats";
+    /**
+     * 统计文件中未提交文件的垃圾字节数标记
+     */
+    private static final long UNCOMMITTED = -1;
+    private static final Pattern BLOB_FILE_PATTERN = Pattern.compile("^" + PREFIX + "(\\d+)\\" + SUFFIX + "$");
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BlobStore.class);
+    private final String logFormat = "[BlobStore][{}]: {}";
+
+    private final String dir;
+
+    /**
+     * 单个blob文件的大小上限，超过后刷盘换新文件
+     */
+    private final long maxFileBytes;
+
+    private final AtomicLong fileIdGenerator = new AtomicLong(0);
+    private final Map<Long, BlobFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * 尚未提交的回收输出文件编号
+     */
+    private final Set<Long> uncommitted = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 正在进行的刷盘写入过值的文件编号，指向它们的位置生效之前不参与回收
+     */
+    private final Set<Long> flushing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 刷盘线程正在追加的文件，不参与回收；尚未写入过值时为null
+     */
+    private volatile BlobFile active;
+
+    public BlobStore(String dir, long maxFileBytes) throws IOException {
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        File[] blobFiles = new File(dir).listFiles((d, name) -> BLOB_FILE_PATTERN.matcher(name).matches());
+        if (blobFiles != null) {
+            for (File blobFile : blobFiles) {
+                Matcher matcher = BLOB_FILE_PATTERN.matcher(blobFile.getName());
+                matcher.matches();
+                long fileId = Long.parseLong(matcher.group(1));
+                fileIdGenerator.accumulateAndGet(fileId, Math::max);
+                files.put(fileId, new BlobFile(blobFile.getAbsolutePath(), fileId));
+            }
+        }
+        loadStats();
+    }
+
+    /**
+     * 把一个值追加到活跃blob文件，只由刷盘线程调用
+     *
+     * @param key   键
+     * @param value 值的UTF-8字节
+     * @return 指向值的命令，{@link #sync()}之后才能写入表文件
+     * @throws IOException 写入失败
+     */
+    public BlobRefCommand append(String key, byte[] value) throws IOException {
+        if (active == null || active.size() >= maxFileBytes) {
+            if (active != null) {
+                active.sync();
+            }
+            active = create();
+        }
+        flushing.add(active.getFileId());
+        return active.append(key, value);
+    }
+
+    /**
+     * 本次刷盘的位置已经合并进索引，写入过的文件恢复参与回收，只由刷盘线程调用
+     */
+    public void releaseFlushed() {
+        flushing.clear();
+    }
+
+    /**
+     * 活跃blob文件落盘，在写有新位置的表文件落盘之前调用
+     */
+    public void sync() throws IOException {
+        if (active != null) {
+            active.sync();
+        }
+    }
+
+    /**
+     * 新建一个blob文件并加入集合，回收时用它存放仍然有效的值
+     */
+    public BlobFile create() throws IOException {
+        long fileId = fileIdGenerator.incrementAndGet();
+        BlobFile file = new BlobFile(dir + File.separator + PREFIX + fileId + SUFFIX, fileId);
+        files.put(fileId, file);
+        return file;
+    }
+
+    /**
+     * 新建一个回收输出文件，在写入任何值之前把它作为未提交记入统计文件。
+     * 指向它的位置提交后调用{@link #commit}，崩溃时它在下次打开时整个被记为垃圾
+     */
+    public synchronized BlobFile createUncommitted() throws IOException {
+        BlobFile file = create();
+        uncommitted.add(file.getFileId());
+        saveStats();
+        return file;
+    }
+
+    /**
+     * 回收输出文件中的位置已经持久化，之后按正常文件统计垃圾
+     */
+    public synchronized void commit(BlobFile file) throws IOException {
+        if (uncommitted.remove(file.getFileId())) {
+            saveStats();
+        }
+    }
+
+    /**
+     * 读取一个值，调用方需持有引擎的读锁
+     *
+     * @param ref 值的位置
+     * @return 值，所在文件已被回收时返回null
+     * @throws IOException 读取失败
+     */
+    public String read(BlobRefCommand ref) throws IOException {
+        BlobFile file = files.get(ref.getFileId());
+        if (file == null || !file.retain()) {
+            return null;
+        }
+        try {
+            return file.read(ref.getOffset(), ref.getLen());
+        } finally {
+            file.release();
+        }
+    }
+
+    /**
+     * 固定当前的全部blob文件，调用方需持有引擎的读锁，用完必须释放
+     */
+    public BlobSet pin() {
+        Map<Long, BlobFile> pinned = new HashMap<>();
+        for (BlobFile file : files.values()) {
+            if (file.retain()) {
+                pinned.put(file.getFileId(), file);
+            }
+        }
+        return new BlobSet(this, pinned);
+    }
+
+    /**
+     * 按垃圾比例从高到低选出不低于阈值的文件，活跃文件和正在刷盘的文件除外。
+     * 多个文件的有效数据合并写到同一个新文件，选出的文件总大小不超过单个文件的上限，至少选一个
+     *
+     * @param minDiscardRatio 垃圾比例阈值
+     * @return 需要回收的文件，没有时返回空列表
+     */
+    public List<BlobFile> pickForGc(double minDiscardRatio) {
+        List<BlobFile> candidates = new ArrayList<>();
+        for (BlobFile file : files.values()) {
+            if (file != active && !flushing.contains(file.getFileId())
+                    && file.discardRatio() >= minDiscardRatio) {
+                candidates.add(file);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(BlobFile::discardRatio).reversed());
+        List<BlobFile> picked = new ArrayList<>();
+        long bytes = 0;
+        for (BlobFile file : candidates) {
+            if (!picked.isEmpty() && bytes + file.size() > maxFileBytes) {
+                break;
+            }
+            picked.add(file);
+            bytes += file.size();
+        }
+        return picked;
+    }
+
+    /**
+     * 若被丢弃的命令是值分离的，把它指向的记录大小累加到按文件汇总的垃圾中
+     *
+     * @param shadowed  压缩丢弃的旧版本
+     * @param discarded 按blob文件编号汇总的垃圾字节数
+     */
+    public static void collectDiscard(Command shadowed, Map<Long, Long> discarded) {
+        if (shadowed instanceof BlobRefCommand) {
+            BlobRefCommand ref = (BlobRefCommand) shadowed;
+            discarded.merge(ref.getFileId(), BlobFile.recordSize(ref), Long::sum);
+        }
+    }
+
+    /**
+     * 压缩结果生效后记入垃圾统计并保存
+     *
+     * @param discarded 按blob文件编号汇总的垃圾字节数
+     */
+    public synchronized void addDiscards(Map<Long, Long> discarded) throws IOException {
+        if (discarded.isEmpty()) {
+            return;
+        }
+        discarded.forEach((fileId, bytes) -> {
+            BlobFile file = files.get(fileId);
+            if (file != null) {
+                file.addDiscardBytes(bytes);
+            }
+        });
+        saveStats();
+    }
+
+    /**
+     * 从集合中移除文件，之后的读取找不到它。调用方需持有引擎的写锁，随后调用{@link #delete}
+     */
+    public void remove(BlobFile file) {
+        files.remove(file.getFileId());
+    }
+
+    /**
+     * 释放并删除已移除的文件，固定了它的读者仍能通过已打开的句柄读完
+     */
+    public synchronized void delete(BlobFile file) throws IOException {
+        uncommitted.remove(file.getFileId());
+        file.close();
+        Files.deleteIfExists(Paths.get(file.getFilePath()));
+        saveStats();
+    }
+
+    /**
+     * @return blob文件个数
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * @return 全部blob文件的总字节数
+     */
+    public long getTotalBytes() {
+        long bytes = 0;
+        for (BlobFile file : files.values()) {
+            bytes += file.size();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return 全部blob文件中的垃圾字节数
+     */
+    public long getDiscardBytes() {
+        long bytes = 0;
+        for (BlobFile file : files.values()) {
+            bytes += file.getDiscardBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 统计文件格式：[int count]{[long fileId][long discardBytes]}，缺失或损坏时从零开始统计。
+     * discardBytes为{@link #UNCOMMITTED}的是崩溃前没有提交的回收输出，没有任何位置指向它，整个文件都是垃圾
+     */
+    private void loadStats() {
+        File statsFile = new File(dir, STATS);
+        if (!statsFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(statsFile)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long fileId = in.readLong();
+                long bytes = in.readLong();
+                BlobFile file = files.get(fileId);
+                if (file != null) {
+                    file.addDiscardBytes(bytes == UNCOMMITTED ? file.size() : bytes);
+                }
+            }
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, logFormat, "loadStats", "ignore broken " + statsFile);
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换
+     */
+    private void saveStats() throws IOException {
+        String statsPath = dir + File.separator + STATS;
+        String tempPath = statsPath + ".tmp";
+        try (FileOutputStream fileOut = new FileOutputStream(tempPath);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            Map<Long, Long> snapshot = new HashMap<>();
+            for (BlobFile file : files.values()) {
+                if (uncommitted.contains(file.getFileId())) {
+                    snapshot.put(file.getFileId(), UNCOMMITTED);
+                } else if (file.getDiscardBytes() > 0) {
+                    snapshot.put(file.getFileId(), file.getDiscardBytes());
+                }
+            }
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Long, Long> entry : snapshot.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(Paths.get(tempPath), Paths.get(statsPath), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        saveStats();
+        for (BlobFile file : files.values()) {
+            file.close();
+        }
+        files.clear();
+    }
+}
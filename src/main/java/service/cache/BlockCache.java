@@ -0,0 +1,239 @@
+package service.cache;
+
+import service.sstable.DataBlock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 所有SSTable共享的块缓存，缓存解码后的数据块，按 (文件编号, 块偏移) 定位。
+ * <p>
+ * 容量按字节计算，内部分成若干条带，key按哈希落到条带上，各条带独立加锁，降低并发读的锁竞争。
+ * 每个条带是一个分段LRU：新块先进入试用段，再次命中才晋升到保护段；
+ * 保护段满时把最久未用的块降回试用段，淘汰总是优先发生在试用段。
+ * 一次性扫描读到的块只会在试用段里流过，不会冲掉保护段中的热点块。
+ */
+public class BlockCache {
+
+    private static final int STRIPES = 16;
+
+    /**
+     * 保护段占条带容量的比例
+     */
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final Stripe[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(long capacityBytes) {
+        this.stripes = new Stripe[STRIPES];
+        long perStripe = Math.max(1, capacityBytes / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    public DataBlock get(long fileId, long blockOffset) {
+        BlockKey key = new BlockKey(fileId, blockOffset);
+        DataBlock block = stripeFor(key).get(key);
+        if (block == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return block;
+    }
+
+    public void put(long fileId, long blockOffset, DataBlock block) {
+        BlockKey key = new BlockKey(fileId, blockOffset);
+        stripeFor(key).put(key, block);
+    }
+
+    /**
+     * 文件被合并删除后移除它的所有块，文件编号不会复用，不调用也只是让这些块自然老化
+     *
+     * @param fileId 文件编号
+     */
+    public void evictFile(long fileId) {
+        for (Stripe stripe : stripes) {
+            stripe.removeFile(fileId);
+        }
+    }
+
+    private Stripe stripeFor(BlockKey key) {
+        return stripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long total = getHits() + getMisses();
+        return total == 0 ? 0 : (double) getHits() / total;
+    }
+
+    /**
+     * @return 当前缓存的块估算字节数
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (Stripe stripe : stripes) {
+            used += stripe.usedBytes();
+        }
+        return used;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCache{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", usedBytes=" + getUsedBytes() +
+                '}';
+    }
+
+    private static final class BlockKey {
+        private final long fileId;
+        private final long blockOffset;
+
+        BlockKey(long fileId, long blockOffset) {
+            this.fileId = fileId;
+            this.blockOffset = blockOffset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return fileId == other.fileId && blockOffset == other.blockOffset;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = fileId * 0x9E3779B97F4A7C15L + blockOffset;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * 单个条带：分段LRU，LinkedHashMap的插入顺序即为LRU顺序，头部最久未用
+     */
+    private final class Stripe {
+        private final long capacity;
+        private final long protectedCapacity;
+        private final LinkedHashMap<BlockKey, DataBlock> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<BlockKey, DataBlock> protectedSegment = new LinkedHashMap<>();
+        private long probationBytes;
+        private long protectedBytes;
+
+        Stripe(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+        }
+
+        synchronized DataBlock get(BlockKey key) {
+            DataBlock block = protectedSegment.remove(key);
+            if (block != null) {
+                // 移到保护段尾部（最近使用）
+                protectedSegment.put(key, block);
+                return block;
+            }
+            block = probation.remove(key);
+            if (block != null) {
+                // 试用段再次命中，晋升到保护段
+                probationBytes -= block.getCharge();
+                protectedSegment.put(key, block);
+                protectedBytes += block.getCharge();
+                demoteProtected();
+            }
+            return block;
+        }
+
+        synchronized void put(BlockKey key, DataBlock block) {
+            if (block.getCharge() > capacity || protectedSegment.containsKey(key) || probation.containsKey(key)) {
+                return;
+            }
+            probation.put(key, block);
+            probationBytes += block.getCharge();
+            evict();
+        }
+
+        synchronized void removeFile(long fileId) {
+            probationBytes -= removeFile(probation, fileId);
+            protectedBytes -= removeFile(protectedSegment, fileId);
+        }
+
+        private long removeFile(LinkedHashMap<BlockKey, DataBlock> segment, long fileId) {
+            long removed = 0;
+            Iterator<Map.Entry<BlockKey, DataBlock>> it = segment.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<BlockKey, DataBlock> entry = it.next();
+                if (entry.getKey().fileId == fileId) {
+                    removed += entry.getValue().getCharge();
+                    it.remove();
+                }
+            }
+            return removed;
+        }
+
+        synchronized long usedBytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        /**
+         * 保护段超出容量时，把最久未用的块降回试用段尾部
+         */
+        private void demoteProtected() {
+            Iterator<Map.Entry<BlockKey, DataBlock>> it = protectedSegment.entrySet().iterator();
+            while (protectedBytes > protectedCapacity && it.hasNext()) {
+                Map.Entry<BlockKey, DataBlock> eldest = it.next();
+                it.remove();
+                protectedBytes -= eldest.getValue().getCharge();
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationBytes += eldest.getValue().getCharge();
+            }
+            evict();
+        }
+
+        /**
+         * 总量超出容量时淘汰，先淘汰试用段，试用段空了才动保护段
+         */
+        private void evict() {
+            while (probationBytes + protectedBytes > capacity) {
+                LinkedHashMap<BlockKey, DataBlock> victimSegment = probation.isEmpty() ? protectedSegment : probation;
+                Iterator<Map.Entry<BlockKey, DataBlock>> it = victimSegment.entrySet().iterator();
+                if (!it.hasNext()) {
+                    return;
+                }
+                Map.Entry<BlockKey, DataBlock> eldest = it.next();
+                it.remove();
+                if (victimSegment == probation) {
+                    probationBytes -= eldest.getValue().getCharge();
+                } else {
+                    protectedBytes -= eldest.getValue().getCharge();
+                }
+                evictions.increment();
+            }
+        }
+    }
+}
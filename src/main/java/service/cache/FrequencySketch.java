@@ -0,0 +1,66 @@
+package service.cache;
+
+/**
+ * 用于TinyLFU准入的频率估计，count-min sketch：4行计数器，取最小值作为估计频率。
+ * 计数器上限15，累计增加次数达到采样窗口后所有计数减半，使频率随时间衰减，旧热点可以退出。
+ * 非线程安全，由所属的缓存条带加锁保护。
+ */
+class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = width * 10;
+    }
+
+    void increment(long hash) {
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int idx = indexOf(hash, i);
+            if (counters[i][idx] < MAX_COUNT) {
+                counters[i][idx]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(long hash) {
+        int min = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters[i][indexOf(hash, i)]);
+        }
+        return min;
+    }
+
+    private int indexOf(long hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 29;
+        return (int) h & mask;
+    }
+
+    /**
+     * 所有计数减半
+     */
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >>> 1);
+            }
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,185 @@
+package service.cache;
+
+import service.sstable.BloomFilter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点key的值缓存，命中时跳过索引查找、读文件和解码。
+ * <p>
+ * 容量同时受条目数和估算字节数限制，分条带加锁。每个条带内部是LRU，
+ * 准入采用TinyLFU：每次访问（无论命中与否）都计入频率估计，缓存满时只有新key的估计频率
+ * 高于将被淘汰的最久未用key时才允许进入，只出现一次的key不会把真正的热点挤出去。
+ * <p>
+ * 写入和读取可以并发进行，一致性靠条带版本号保证：写入在更新内存表之后调用{@link #invalidate}，
+ * 使所在条带的版本号加一；读路径在读取数据之前通过{@link #version}取得版本号，
+ * 读到的值只有在这期间条带版本号未变时才能准入，读到的旧值不会在并发写入之后进入缓存。
+ */
+public class ValueCache {
+
+    private static final int STRIPES = 16;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Stripe[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public ValueCache(int maxEntries, long maxBytes) {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxEntries / STRIPES), Math.max(1, maxBytes / STRIPES));
+        }
+    }
+
+    /**
+     * 查询缓存，同时记录一次访问频率
+     *
+     * @param key 键
+     * @return 缓存的值，未命中返回null
+     */
+    public String get(String key) {
+        long hash = BloomFilter.hash(key);
+        String value = stripeFor(hash).get(key, hash);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 读取数据之前调用，取得key所在条带的当前版本号
+     *
+     * @param key 键
+     * @return 版本号，传给{@link #admit}
+     */
+    public long version(String key) {
+        return stripeFor(BloomFilter.hash(key)).version();
+    }
+
+    /**
+     * 读路径从磁盘或内存表读到值后尝试放入缓存，是否准入由频率决定；
+     * 读取期间条带上发生过写入时放弃准入
+     *
+     * @param version 读取数据之前通过{@link #version}取得的版本号
+     */
+    public void admit(String key, String value, long version) {
+        if (value == null) {
+            return;
+        }
+        long hash = BloomFilter.hash(key);
+        if (!stripeFor(hash).admit(key, hash, value, version)) {
+            rejections.increment();
+        }
+    }
+
+    /**
+     * 写入或删除时调用，必须在新值对读路径可见之后调用
+     */
+    public void invalidate(String key) {
+        stripeFor(BloomFilter.hash(key)).remove(key);
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) ((hash >>> 40) % STRIPES)];
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 因频率不足被拒绝准入的次数
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public double getHitRate() {
+        long total = getHits() + getMisses();
+        return total == 0 ? 0 : (double) getHits() / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ValueCache{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", rejections=" + getRejections() +
+                '}';
+    }
+
+    private static int charge(String key, String value) {
+        return ENTRY_OVERHEAD + (key.length() + value.length()) * 2;
+    }
+
+    private static final class Stripe {
+        private final int maxEntries;
+        private final long maxBytes;
+        private final LinkedHashMap<String, String> lru = new LinkedHashMap<>(16, 0.75f, true);
+        private final FrequencySketch sketch;
+        private long bytes;
+        private long version;
+
+        Stripe(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            this.sketch = new FrequencySketch(maxEntries);
+        }
+
+        synchronized String get(String key, long hash) {
+            sketch.increment(hash);
+            return lru.get(key);
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized boolean admit(String key, long hash, String value, long readVersion) {
+            int charge = charge(key, value);
+            if (readVersion != version || charge > maxBytes) {
+                return false;
+            }
+            String old = lru.remove(key);
+            if (old != null) {
+                bytes -= charge(key, old);
+            }
+            // 只与最久未用的key比较频率，准入后按需继续淘汰以腾出字节空间
+            boolean compared = false;
+            Iterator<Map.Entry<String, String>> it = lru.entrySet().iterator();
+            while ((lru.size() >= maxEntries || bytes + charge > maxBytes) && it.hasNext()) {
+                Map.Entry<String, String> victim = it.next();
+                if (!compared) {
+                    compared = true;
+                    if (sketch.frequency(BloomFilter.hash(victim.getKey())) >= sketch.frequency(hash)) {
+                        return false;
+                    }
+                }
+                bytes -= charge(victim.getKey(), victim.getValue());
+                it.remove();
+            }
+            lru.put(key, value);
+            bytes += charge;
+            return true;
+        }
+
+        synchronized void remove(String key) {
+            version++;
+            String old = lru.remove(key);
+            if (old != null) {
+                bytes -= charge(key, old);
+            }
+        }
+    }
+}
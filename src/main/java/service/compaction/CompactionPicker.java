@@ -0,0 +1,19 @@
+package service.compaction;
+
+import service.sstable.SSTableReader;
+
+import java.util.List;
+
+/**
+ * 压缩文件选择策略
+ */
+public interface CompactionPicker {
+
+    /**
+     * 根据当前的文件集合选出下一次需要执行的压缩。
+     *
+     * @param tables 当前全部SSTable
+     * @return 压缩任务，无需压缩时返回null
+     */
+    CompactionTask pick(List<SSTableReader> tables);
+}
@@ -0,0 +1,91 @@
+package service.compaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 后台压缩调度器，由事件驱动而不是轮询。
+ * <p>
+ * 文件滚动、打开存储等可能产生压缩需求的地方调用{@link #trigger()}，
+ * 调度器在单个后台线程上反复执行一次压缩，直到策略认为不再需要压缩为止。
+ * 执行期间的多次触发合并为一次，没有事件时线程空闲，不占用CPU。
+ */
+public class CompactionScheduler implements Closeable {
+
+    /**
+     * 执行一次压缩
+     */
+    public interface Compactor {
+        /**
+         * @return 执行了压缩返回true，无事可做返回false
+         * @throws IOException 压缩失败
+         */
+        boolean compactOnce() throws IOException;
+    }
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CompactionScheduler.class);
+    private final String logFormat = "[CompactionScheduler][{}]: {}";
+
+    private final Compactor compactor;
+    private final ExecutorService executor;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean closed;
+
+    public CompactionScheduler(Compactor compactor) {
+        this.compactor = compactor;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "compaction");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 通知调度器可能需要压缩，已有待执行的压缩时直接返回
+     */
+    public void trigger() {
+        if (closed || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::run);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+        }
+    }
+
+    private void run() {
+        // 先清除标记，执行期间到来的触发会再安排一轮
+        scheduled.set(false);
+        try {
+            while (!closed && compactor.compactOnce()) {
+                // 一次压缩可能使下一层超出上限，继续检查直到无事可做
+            }
+        } catch (Exception e) {
+            LoggerUtil.error(LOGGER, e, logFormat, "run", "compaction failed");
+        }
+    }
+
+    /**
+     * 停止调度并等待正在执行的压缩完成
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
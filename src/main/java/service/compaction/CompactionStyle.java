@@ -0,0 +1,17 @@
+package service.compaction;
+
+/**
+ * 压缩策略
+ */
+public enum CompactionStyle {
+    /*
+     * 分层压缩：第0层文件达到个数阈值或各层总大小超过上限时，把一个文件与下一层中key范围重叠的文件合并，
+     * 第1层及以下同层文件互不重叠，点查每层最多访问一个文件，写放大与层数成正比
+     * */
+    LEVELED,
+    /*
+     * 按大小分级压缩：相邻且大小相近的若干文件凑够数量后合并为一个，
+     * 写放大小于分层压缩，代价是同一个key可能存在于更多文件中
+     * */
+    SIZE_TIERED
+}
@@ -0,0 +1,75 @@
+package service.compaction;
+
+import lombok.Getter;
+import service.sstable.SSTableReader;
+
+import java.util.List;
+
+/**
+ * 一次压缩任务：要合并的输入文件以及输出文件的层级和顺序号。
+ */
+@Getter
+public class CompactionTask {
+    /**
+     * 输入文件，合并时同一个key以所在层级更小、同层顺序号更大的为准
+     */
+    private final List<SSTableReader> inputs;
+
+    /**
+     * 输出文件所在层级
+     */
+    private final int outputLevel;
+
+    /**
+     * 输出文件的顺序号，取输入中的最大值，保证输出与未参与合并的文件之间新旧关系不变
+     */
+    private final long outputOrderId;
+
+    /**
+     * 单个输出文件的目标大小，超过后在下一个key处切分
+     */
+    private final long maxOutputFileSize;
+
+    /**
+     * 输出层之下没有与输入key范围重叠的文件
+     */
+    private final boolean bottommost;
+
+    public CompactionTask(List<SSTableReader> inputs, int outputLevel, long maxOutputFileSize, boolean bottommost) {
+        this.inputs = inputs;
+        this.outputLevel = outputLevel;
+        this.maxOutputFileSize = maxOutputFileSize;
+        this.bottommost = bottommost;
+        long maxOrderId = 0;
+        for (SSTableReader input : inputs) {
+            maxOrderId = Math.max(maxOrderId, input.getOrderId());
+        }
+        this.outputOrderId = maxOrderId;
+    }
+
+    /**
+     * @return 输入文件的总字节数
+     */
+    public long getInputBytes() {
+        long bytes = 0;
+        for (SSTableReader input : inputs) {
+            bytes += input.getFileSize();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CompactionTask{inputs=[");
+        for (int i = 0; i < inputs.size(); i++) {
+            SSTableReader input = inputs.get(i);
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(input.getFileId()).append("@L").append(input.getLevel());
+        }
+        return sb.append("], outputLevel=").append(outputLevel)
+                .append(", bottommost=").append(bottommost)
+                .append('}').toString();
+    }
+}
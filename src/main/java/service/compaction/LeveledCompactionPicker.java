@@ -0,0 +1,177 @@
+package service.compaction;
+
+import service.StoreConfig;
+import service.sstable.SSTableReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分层压缩的文件选择。
+ * <p>
+ * 每层计算一个得分：第0层为文件个数除以触发阈值，第i层为该层总大小除以该层容量上限，
+ * 容量上限从第1层开始按倍数逐层放大。取得分最高且不小于1的层做一次压缩：
+ * <ul>
+ * <li>第0层文件之间key范围互相重叠，全部文件与第1层中重叠的文件一起合并；</li>
+ * <li>第i层选出与下一层重叠字节数相对自身大小最小的文件，只与下一层重叠的文件合并，
+ * 每次压缩重写的数据量尽量少，控制写放大。</li>
+ * </ul>
+ * 输出写到下一层并按目标文件大小切分，使下一层的文件保持互不重叠。
+ * <p>
+ * 没有层超过上限时，选出删除命令占比最高且达到阈值的文件（最后一层除外）按同样的方式下沉一层。
+ * 删除命令只有在下面没有更旧的文件可能含有该key时才能丢弃，下沉让它们与被删除的旧值一起合并掉，
+ * 每次至少下沉一层，最多到最后一层就会被丢弃，不会反复压缩同一批数据。
+ */
+public class LeveledCompactionPicker implements CompactionPicker {
+
+    private final int level0FileNumTrigger;
+    private final long maxBytesForLevelBase;
+    private final int maxBytesForLevelMultiplier;
+    private final int numLevels;
+    private final long targetFileSizeBytes;
+    private final double tombstoneCompactionRatio;
+    private final long tombstoneCompactionMinCount;
+
+    public LeveledCompactionPicker(StoreConfig config) {
+        this.level0FileNumTrigger = Math.max(2, config.getLevel0FileNumTrigger());
+        this.maxBytesForLevelBase = config.getMaxBytesForLevelBase();
+        this.maxBytesForLevelMultiplier = Math.max(2, config.getMaxBytesForLevelMultiplier());
+        this.numLevels = Math.max(2, config.getNumLevels());
+        this.targetFileSizeBytes = config.getTargetFileSizeBytes();
+        this.tombstoneCompactionRatio = config.getTombstoneCompactionRatio();
+        this.tombstoneCompactionMinCount = config.getTombstoneCompactionMinCount();
+    }
+
+    @Override
+    public CompactionTask pick(List<SSTableReader> tables) {
+        List<List<SSTableReader>> levels = new ArrayList<>(numLevels);
+        for (int i = 0; i < numLevels; i++) {
+            levels.add(new ArrayList<>());
+        }
+        for (SSTableReader table : tables) {
+            levels.get(Math.min(table.getLevel(), numLevels - 1)).add(table);
+        }
+
+        int bestLevel = -1;
+        double bestScore = 1;
+        for (int level = 0; level < numLevels - 1; level++) {
+            double score = level == 0
+                    ? (double) levels.get(0).size() / level0FileNumTrigger
+                    : (double) totalBytes(levels.get(level)) / maxBytesForLevel(level);
+            if (score >= bestScore) {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        SSTableReader denseFile = null;
+        if (bestLevel < 0) {
+            double bestRatio = tombstoneCompactionRatio;
+            for (int level = 0; level < numLevels - 1; level++) {
+                for (SSTableReader table : levels.get(level)) {
+                    if (table.getTombstoneCount() >= tombstoneCompactionMinCount && table.tombstoneRatio() >= bestRatio) {
+                        bestRatio = table.tombstoneRatio();
+                        bestLevel = level;
+                        denseFile = table;
+                    }
+                }
+            }
+            if (denseFile == null) {
+                return null;
+            }
+        }
+
+        List<SSTableReader> inputs = new ArrayList<>();
+        if (bestLevel == 0) {
+            inputs.addAll(levels.get(0));
+        } else {
+            inputs.add(denseFile != null ? denseFile : pickFile(levels.get(bestLevel), levels.get(bestLevel + 1)));
+            // 同层本应互不重叠，崩溃残留的重叠文件必须一起下沉，否则留在上层的旧值会遮住新值
+            addOverlapping(levels.get(bestLevel), inputs);
+        }
+        addOverlapping(levels.get(bestLevel + 1), inputs);
+
+        String[] range = keyRange(inputs);
+        boolean bottommost = true;
+        for (int level = bestLevel + 2; level < numLevels && bottommost; level++) {
+            for (SSTableReader table : levels.get(level)) {
+                if (table.overlaps(range[0], range[1])) {
+                    bottommost = false;
+                    break;
+                }
+            }
+        }
+        return new CompactionTask(inputs, bestLevel + 1, targetFileSizeBytes, bottommost);
+    }
+
+    private long maxBytesForLevel(int level) {
+        long bytes = maxBytesForLevelBase;
+        for (int i = 1; i < level; i++) {
+            bytes *= maxBytesForLevelMultiplier;
+        }
+        return bytes;
+    }
+
+    /**
+     * 选出与下一层重叠字节数和自身大小之比最小的文件
+     */
+    private static SSTableReader pickFile(List<SSTableReader> levelFiles, List<SSTableReader> nextLevelFiles) {
+        SSTableReader best = null;
+        double bestRatio = Double.MAX_VALUE;
+        for (SSTableReader file : levelFiles) {
+            long overlapBytes = 0;
+            for (SSTableReader next : nextLevelFiles) {
+                if (next.overlaps(file.getSmallestKey(), file.getLargestKey())) {
+                    overlapBytes += next.getFileSize();
+                }
+            }
+            double ratio = (double) overlapBytes / Math.max(1, file.getFileSize());
+            if (ratio < bestRatio) {
+                bestRatio = ratio;
+                best = file;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 把候选文件中与输入key范围重叠的文件加入输入，范围扩大后继续查找，直到不再变化
+     */
+    private static void addOverlapping(List<SSTableReader> candidates, List<SSTableReader> inputs) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            String[] range = keyRange(inputs);
+            for (SSTableReader candidate : candidates) {
+                if (!inputs.contains(candidate) && candidate.overlaps(range[0], range[1])) {
+                    inputs.add(candidate);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static String[] keyRange(List<SSTableReader> files) {
+        String smallest = null;
+        String largest = null;
+        for (SSTableReader file : files) {
+            if (file.getEntryCount() == 0) {
+                continue;
+            }
+            if (smallest == null || file.getSmallestKey().compareTo(smallest) < 0) {
+                smallest = file.getSmallestKey();
+            }
+            if (largest == null || file.getLargestKey().compareTo(largest) > 0) {
+                largest = file.getLargestKey();
+            }
+        }
+        return smallest == null ? new String[]{"", ""} : new String[]{smallest, largest};
+    }
+
+    private static long totalBytes(List<SSTableReader> files) {
+        long bytes = 0;
+        for (SSTableReader file : files) {
+            bytes += file.getFileSize();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,98 @@
+package service.compaction;
+
+import service.StoreConfig;
+import service.sstable.SSTableReader;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 按大小分级压缩的文件选择。
+ * <p>
+ * 文件按新旧排列后，寻找一段相邻的、最大与最小文件相差不超过一倍的文件，
+ * 数量达到下限即合并为一个文件。只合并新旧相邻的文件，输出沿用输入中最大的顺序号，
+ * 与其他文件的新旧关系保持不变。小于{@link #SMALL_FILE_BYTES}的文件都视为同一级。
+ * 所有文件都在第0层，只处理第0层，切换策略前遗留的更深层文件保持不动。
+ * <p>
+ * 没有可合并的文件时，选出删除命令占比最高且达到阈值的文件，与比它更旧的全部文件一起合并。
+ * 删除命令只有在没有更旧的文件时才能丢弃，所以只在这些文件不超过一次最多合并的个数、且没有更深层文件时进行，
+ * 合并结果中不再有删除命令，不会被再次选中。
+ */
+public class SizeTieredCompactionPicker implements CompactionPicker {
+
+    private static final long SMALL_FILE_BYTES = 1024 * 1024;
+    private static final double BUCKET_RATIO = 2.0;
+
+    private final int minMergeWidth;
+    private final int maxMergeWidth;
+    private final double tombstoneCompactionRatio;
+    private final long tombstoneCompactionMinCount;
+
+    public SizeTieredCompactionPicker(StoreConfig config) {
+        this.minMergeWidth = Math.max(2, config.getSizeTieredMinMergeWidth());
+        this.maxMergeWidth = Math.max(minMergeWidth, config.getSizeTieredMaxMergeWidth());
+        this.tombstoneCompactionRatio = config.getTombstoneCompactionRatio();
+        this.tombstoneCompactionMinCount = config.getTombstoneCompactionMinCount();
+    }
+
+    @Override
+    public CompactionTask pick(List<SSTableReader> tables) {
+        List<SSTableReader> files = new ArrayList<>();
+        boolean hasDeeperLevels = false;
+        for (SSTableReader table : tables) {
+            if (table.getLevel() == 0) {
+                files.add(table);
+            } else {
+                hasDeeperLevels = true;
+            }
+        }
+        files.sort(Comparator.comparingLong(SSTableReader::getOrderId)
+                .thenComparingLong(SSTableReader::getFileId).reversed());
+
+        for (int start = 0; start + minMergeWidth <= files.size(); start++) {
+            long min = bucketSize(files.get(start));
+            long max = min;
+            int end = start + 1;
+            while (end < files.size() && end - start < maxMergeWidth) {
+                long size = bucketSize(files.get(end));
+                if (Math.max(max, size) > Math.min(min, size) * BUCKET_RATIO) {
+                    break;
+                }
+                min = Math.min(min, size);
+                max = Math.max(max, size);
+                end++;
+            }
+            if (end - start >= minMergeWidth) {
+                boolean bottommost = end == files.size() && !hasDeeperLevels;
+                return new CompactionTask(new ArrayList<>(files.subList(start, end)), 0, Long.MAX_VALUE, bottommost);
+            }
+        }
+        return hasDeeperLevels ? null : pickTombstoneDense(files);
+    }
+
+    /**
+     * 选出删除命令占比最高的文件，与更旧的文件一起做一次能丢弃删除命令的合并
+     *
+     * @param files 第0层文件，从新到旧排列
+     */
+    private CompactionTask pickTombstoneDense(List<SSTableReader> files) {
+        int dense = -1;
+        double bestRatio = tombstoneCompactionRatio;
+        for (int i = Math.max(0, files.size() - maxMergeWidth); i < files.size(); i++) {
+            SSTableReader file = files.get(i);
+            if (file.getTombstoneCount() >= tombstoneCompactionMinCount && file.tombstoneRatio() >= bestRatio) {
+                bestRatio = file.tombstoneRatio();
+                dense = i;
+            }
+        }
+        if (dense < 0) {
+            return null;
+        }
+        return new CompactionTask(new ArrayList<>(files.subList(dense, files.size())), 0, Long.MAX_VALUE, true);
+    }
+
+    private static long bucketSize(SSTableReader file) {
+        return Math.max(SMALL_FILE_BYTES, file.getFileSize());
+    }
+}
@@ -0,0 +1,219 @@
+package service.index;
+
+import model.command.Command;
+import model.command.CommandPos;
+import service.sstable.BloomFilter;
+import utils.CommandCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 追加日志文件的key索引，开放寻址（线性探测）哈希表，全部数据存放在一个long数组中。
+ * <p>
+ * 每个槽位3个long：[key的64位哈希][记录偏移][文件编号 高32位 | 记录长度 低32位]，
+ * 每个key约32字节（含空槽），不为每个key创建String、CommandPos和HashMap节点对象。
+ * 文件编号到路径的映射放在一张小表里，由{@link #fileId}分配。
+ * <p>
+ * 索引只保存key的哈希，不保存key本身：哈希相同的两个key会共用一个槽位，后写入的覆盖先写入的。
+ * 因此{@link #get}的结果只是候选位置，调用方读出记录后必须核对key，不一致时说明槽位被碰撞的key占用，
+ * 要查的key可能仍在文件中，必须用{@link #scanFor}顺序扫描文件确认，不能直接去查更旧的文件。
+ * 64位哈希在单个活跃文件的key数量下碰撞概率可以忽略，兜底扫描几乎不会发生。
+ * 非线程安全，写入需要调用方持有引擎写锁，读取持有读锁。
+ */
+public class KeyIndex {
+
+    private static final int SLOT_LONGS = 3;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double LOAD_FACTOR = 0.75;
+    /**
+     * 空槽的哈希值，真实哈希为0时改用1
+     */
+    private static final long EMPTY = 0;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+
+    private final List<String> filePaths = new ArrayList<>();
+    private final Map<String, Integer> fileIds = new HashMap<>();
+
+    public KeyIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private KeyIndex(long[] slots, int mask, int size) {
+        this.slots = slots;
+        this.mask = mask;
+        this.size = size;
+    }
+
+    /**
+     * 取得文件的编号，第一次出现时分配
+     *
+     * @param path 文件路径
+     * @return 文件编号
+     */
+    public int fileId(String path) {
+        Integer id = fileIds.get(path);
+        if (id == null) {
+            id = filePaths.size();
+            filePaths.add(path);
+            fileIds.put(path, id);
+        }
+        return id;
+    }
+
+    /**
+     * 记录key的最新位置，覆盖已有的位置
+     *
+     * @param key    键
+     * @param fileId {@link #fileId}分配的文件编号
+     * @param pos    记录在文件中的偏移
+     * @param len    记录长度
+     */
+    public void put(String key, int fileId, long pos, int len) {
+        if (size + 1 > (mask + 1) * LOAD_FACTOR) {
+            allocate((mask + 1) * 2);
+        }
+        long hash = hash(key);
+        int slot = slotOf(hash);
+        while (slots[slot * SLOT_LONGS] != EMPTY && slots[slot * SLOT_LONGS] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        if (slots[slot * SLOT_LONGS] == EMPTY) {
+            size++;
+        }
+        write(slot, hash, pos, ((long) fileId << 32) | (len & 0xFFFFFFFFL));
+    }
+
+    /**
+     * @param key 键
+     * @return key可能所在的位置，不存在返回null；哈希碰撞时可能是别的key的位置，调用方需核对
+     */
+    public CommandPos get(String key) {
+        long hash = hash(key);
+        int slot = slotOf(hash);
+        while (slots[slot * SLOT_LONGS] != EMPTY) {
+            if (slots[slot * SLOT_LONGS] == hash) {
+                long pos = slots[slot * SLOT_LONGS + 1];
+                long fileAndLen = slots[slot * SLOT_LONGS + 2];
+                return new CommandPos(pos, (int) fileAndLen, filePaths.get((int) (fileAndLen >>> 32)));
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * 槽位中是别的key时的兜底查找：顺序扫描追加日志[0, length)中的全部记录，返回key的最后一条记录。
+     * 只用定位读，可以在共享的文件句柄上并发调用
+     *
+     * @param channel 追加日志文件
+     * @param length  已建立索引的长度，之后的数据不扫描
+     * @param key     键
+     * @return key在文件中的最新命令，不存在返回null
+     * @throws IOException 读取失败
+     */
+    public static Command scanFor(FileChannel channel, long length, String key) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        Command latest = null;
+        long pos = 0;
+        while (pos + 4 <= length) {
+            header.clear();
+            readFully(channel, header, pos);
+            int len = header.getInt(0);
+            if (len < 0 || pos + 4 + len > length) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(len);
+            readFully(channel, record, pos + 4);
+            record.flip();
+            Command command = CommandCodec.decode(record);
+            if (command != null && key.equals(command.getKey())) {
+                latest = command;
+            }
+            pos += 4 + len;
+        }
+        return latest;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long pos) throws IOException {
+        long readPos = pos;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, readPos);
+            if (n < 0) {
+                throw new IOException("读取越界: pos=" + pos);
+            }
+            readPos += n;
+        }
+    }
+
+    /**
+     * 复制一份独立的索引，之后两者互不影响；快照用它固定创建时刻活跃文件中key的位置
+     *
+     * @return 索引副本
+     */
+    public KeyIndex copy() {
+        KeyIndex copy = new KeyIndex(slots.clone(), mask, size);
+        copy.filePaths.addAll(filePaths);
+        copy.fileIds.putAll(fileIds);
+        return copy;
+    }
+
+    /**
+     * @return 不同key哈希的个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 槽位数组占用的字节数
+     */
+    public long memoryBytes() {
+        return (long) slots.length * Long.BYTES;
+    }
+
+    private void allocate(int capacity) {
+        long[] old = slots;
+        slots = new long[capacity * SLOT_LONGS];
+        mask = capacity - 1;
+        if (old == null) {
+            return;
+        }
+        // 扩容时哈希已知，直接按哈希重新放置，无需key
+        for (int i = 0; i < old.length; i += SLOT_LONGS) {
+            long hash = old[i];
+            if (hash == EMPTY) {
+                continue;
+            }
+            int slot = slotOf(hash);
+            while (slots[slot * SLOT_LONGS] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            write(slot, hash, old[i + 1], old[i + 2]);
+        }
+    }
+
+    private void write(int slot, long hash, long pos, long fileAndLen) {
+        int base = slot * SLOT_LONGS;
+        slots[base] = hash;
+        slots[base + 1] = pos;
+        slots[base + 2] = fileAndLen;
+    }
+
+    private int slotOf(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long hash(String key) {
+        long hash = BloomFilter.hash(key);
+        return hash == EMPTY ? 1 : hash;
+    }
+}
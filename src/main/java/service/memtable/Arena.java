@@ -0,0 +1,94 @@
+package service.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存表使用的堆外内存区，由若干块直接内存（direct ByteBuffer）组成，只追加不单独释放。
+ * <p>
+ * 每次分配在当前块的末尾顺序切出一段，块用完就申请新块，超过块大小的记录单独占用一块。
+ * 地址编码为 [块号 高32位][块内偏移 低32位]。内存表刷盘后整体丢弃，所有块随之被回收，
+ * 不会为每条记录在堆上留下短命对象。
+ * <p>
+ * 分配和拷贝在同一把锁内完成，拷贝的是已经序列化好的记录，很短；块数组写时复制，读取不加锁，
+ * 地址只有在拷贝完成后才会发布给读者。
+ */
+class Arena {
+
+    private final int blockSize;
+    private volatile ByteBuffer[] blocks = new ByteBuffer[0];
+    private ByteBuffer current;
+    private int currentIndex = -1;
+
+    /**
+     * 已写入的记录字节数
+     */
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * 已申请的直接内存字节数
+     */
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    Arena(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * 把记录拷贝进内存区
+     *
+     * @param record 记录
+     * @return 记录的地址，传给{@link #read}
+     */
+    synchronized long copy(byte[] record) {
+        usedBytes.addAndGet(record.length);
+        if (record.length > blockSize) {
+            // 大记录单独占一块，不浪费当前块的剩余空间
+            ByteBuffer block = ByteBuffer.allocateDirect(record.length);
+            block.put(record);
+            return address(addBlock(block), 0);
+        }
+        if (current == null || current.remaining() < record.length) {
+            current = ByteBuffer.allocateDirect(blockSize);
+            currentIndex = addBlock(current);
+        }
+        int offset = current.position();
+        current.put(record);
+        return address(currentIndex, offset);
+    }
+
+    /**
+     * 读取一条记录，返回堆上的副本
+     *
+     * @param address {@link #copy}返回的地址
+     * @param length  记录长度
+     */
+    byte[] read(long address, int length) {
+        ByteBuffer view = blocks[(int) (address >>> 32)].duplicate();
+        view.position((int) address);
+        byte[] record = new byte[length];
+        view.get(record);
+        return record;
+    }
+
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    private int addBlock(ByteBuffer block) {
+        ByteBuffer[] grown = Arrays.copyOf(blocks, blocks.length + 1);
+        grown[grown.length - 1] = block;
+        blocks = grown;
+        allocatedBytes.addAndGet(block.capacity());
+        return grown.length - 1;
+    }
+
+    private static long address(int block, int offset) {
+        return ((long) block << 32) | offset;
+    }
+}
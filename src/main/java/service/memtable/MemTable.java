@@ -0,0 +1,275 @@
+package service.memtable;
+
+import model.command.Command;
+import service.sstable.TableIterator;
+import utils.CommandUtil;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并发内存表，基于跳表，key有序。
+ * <p>
+ * 每个条目带有写入序号，序号由预写日志在追加时分配，与日志中的顺序一致。
+ * 多个写者可以并发写入同一个内存表，同一个key并发写入时以序号大的为准，与到达内存表的先后无关；
+ * 读取不加任何锁。
+ * <p>
+ * 同一个key的各个版本按序号从新到旧串成不可变的链表，快照按自己的序号沿链表找到可见的版本；
+ * 旧版本的字节本来就留在只追加的内存区中，保留版本只多一个链表节点。刷盘只写出每个key的最新版本。
+ * <p>
+ * 命令以落盘格式的字节存放在堆外的{@link Arena}中，跳表节点只保存key、序号和地址，
+ * 容量按字节计算；刷盘时直接写出这些字节，无需重新序列化。
+ */
+public class MemTable {
+
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * 不同key的个数，跳表的size()需要遍历，单独计数
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * 每个key在堆上的估算开销：跳表节点、索引层和条目对象
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * 同一个key每多一个版本在堆上的估算开销
+     */
+    private static final int VERSION_OVERHEAD = 40;
+
+    private final Arena arena;
+
+    /**
+     * 堆上key和条目的估算字节数，堆外部分由arena统计
+     */
+    private final AtomicLong heapBytes = new AtomicLong();
+
+    /**
+     * 冻结时记录的预写日志段号，本内存表的记录都在这个段及之前的段中，刷盘后可以删除这些段
+     */
+    private volatile long walSegmentId = -1;
+
+    /**
+     * @param arenaBlockSize 堆外内存区每块的字节数
+     */
+    public MemTable(int arenaBlockSize) {
+        this.arena = new Arena(arenaBlockSize);
+    }
+
+    /**
+     * 写入一条命令，按序号插入该key的版本链，已有更新的序号时新命令成为旧版本
+     *
+     * @param seq    写入序号
+     * @param key    命令的key
+     * @param record 命令序列化后的字节，即预写日志中的记录
+     */
+    public void put(long seq, String key, byte[] record) {
+        Entry entry = new Entry(seq, arena.copy(record), record.length, arena, null);
+        if (entries.putIfAbsent(key, entry) == null) {
+            size.incrementAndGet();
+            heapBytes.addAndGet(ENTRY_OVERHEAD + 2L * key.length());
+            return;
+        }
+        // 版本链不可变，并发写入同一个key时以CAS替换链头，失败重试
+        while (true) {
+            Entry current = entries.get(key);
+            if (entries.replace(key, current, current.insert(entry))) {
+                break;
+            }
+        }
+        heapBytes.addAndGet(VERSION_OVERHEAD);
+    }
+
+    /**
+     * @param key 键
+     * @return 最新的命令（可能是删除标记），不存在返回null
+     */
+    public Command get(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.getCommand();
+    }
+
+    /**
+     * 快照读
+     *
+     * @param key    键
+     * @param maxSeq 快照的序号，只有不大于它的版本可见
+     * @return 可见的最新命令（可能是删除标记），没有可见版本返回null
+     */
+    public Command get(String key, long maxSeq) {
+        Entry entry = entries.get(key);
+        entry = entry == null ? null : entry.visible(maxSeq);
+        return entry == null ? null : entry.getCommand();
+    }
+
+    /**
+     * @return 按key升序的全部条目，遍历是弱一致的，刷盘时内存表已不再写入
+     */
+    public Collection<Map.Entry<String, Entry>> entries() {
+        return entries.entrySet();
+    }
+
+    /**
+     * 按key升序遍历[from, to)区间内的命令，惰性解码。活跃内存表上的遍历是弱一致的，
+     * 可能看到遍历开始之后的写入
+     *
+     * @param from 起始key（含），null表示从头开始
+     * @param to   结束key（不含），null表示到末尾
+     * @return 命令迭代器，不持有需要释放的资源
+     */
+    public TableIterator iterator(String from, String to) {
+        return iterator(from, to, Long.MAX_VALUE);
+    }
+
+    /**
+     * 快照遍历，每个key只输出序号不大于maxSeq的最新版本，没有可见版本的key被跳过
+     *
+     * @param from   起始key（含），null表示从头开始
+     * @param to     结束key（不含），null表示到末尾
+     * @param maxSeq 快照的序号
+     * @return 命令迭代器，不持有需要释放的资源
+     */
+    public TableIterator iterator(String from, String to, long maxSeq) {
+        Iterator<Entry> it;
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            // 空区间，跳表不接受起点大于终点的子视图
+            it = Collections.emptyIterator();
+        } else {
+            ConcurrentNavigableMap<String, Entry> range = entries;
+            if (from != null) {
+                range = range.tailMap(from, true);
+            }
+            if (to != null) {
+                range = range.headMap(to, false);
+            }
+            it = range.values().iterator();
+        }
+        return new TableIterator() {
+            private Entry next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && it.hasNext()) {
+                    next = it.next().visible(maxSeq);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Command next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Command command = next.getCommand();
+                next = null;
+                return command;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * 内存表被切换为不可变时调用，之后不再写入
+     *
+     * @param walSegmentId 本内存表对应的最后一个预写日志段号
+     */
+    public void freeze(long walSegmentId) {
+        this.walSegmentId = walSegmentId;
+    }
+
+    public long getWalSegmentId() {
+        return walSegmentId;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * 估算的内存占用，包括同一个key被覆盖的旧值，内存表只追加，旧值直到整体丢弃才释放
+     *
+     * @return 字节数
+     */
+    public long approximateMemoryUsage() {
+        return arena.getUsedBytes() + heapBytes.get();
+    }
+
+    /**
+     * @return 已申请的堆外内存字节数
+     */
+    public long getArenaAllocatedBytes() {
+        return arena.getAllocatedBytes();
+    }
+
+    /**
+     * 内存表条目：写入序号、命令在堆外内存区中的位置，以及同一个key序号更小的上一个版本
+     */
+    public static final class Entry {
+        private final long seq;
+        private final long address;
+        private final int length;
+        private final Arena arena;
+        private final Entry older;
+
+        Entry(long seq, long address, int length, Arena arena, Entry older) {
+            this.seq = seq;
+            this.address = address;
+            this.length = length;
+            this.arena = arena;
+            this.older = older;
+        }
+
+        /**
+         * 按序号插入一个版本，返回新的链头；通常新版本序号最大，直接放在链头
+         */
+        Entry insert(Entry version) {
+            if (version.seq > seq) {
+                return new Entry(version.seq, version.address, version.length, arena, this);
+            }
+            return new Entry(seq, address, length, arena, older == null
+                    ? new Entry(version.seq, version.address, version.length, arena, null) : older.insert(version));
+        }
+
+        /**
+         * @return 序号不大于maxSeq的最新版本，没有返回null
+         */
+        Entry visible(long maxSeq) {
+            Entry entry = this;
+            while (entry != null && entry.seq > maxSeq) {
+                entry = entry.older;
+            }
+            return entry;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         * @return 命令序列化后的字节
+         */
+        public byte[] getRecord() {
+            return arena.read(address, length);
+        }
+
+        public Command getCommand() {
+            return CommandUtil.decode(getRecord());
+        }
+    }
+}
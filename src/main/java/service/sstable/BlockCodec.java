@@ -0,0 +1,38 @@
+package service.sstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 数据块压缩算法。每个数据块单独压缩，索引中记录块的压缩后偏移、长度、原始长度和算法编号，
+ * 点查只需要解压命中的那一个块。
+ * <p>
+ * 读取时按索引中的编号通过{@link BlockCodecs#forId}找到算法，自定义实现需要先{@link BlockCodecs#register}。
+ * 实现必须线程安全，多个读线程会同时解压。
+ */
+public interface BlockCodec {
+
+    /**
+     * @return 算法编号，写入文件的块索引中，不同实现必须不同，0保留给不压缩
+     */
+    byte getId();
+
+    /**
+     * 压缩一个数据块
+     *
+     * @param raw    原始字节
+     * @param length 有效长度
+     * @return 压缩后的字节
+     * @throws IOException 压缩失败
+     */
+    byte[] compress(byte[] raw, int length) throws IOException;
+
+    /**
+     * 解压一个数据块
+     *
+     * @param compressed 压缩后的字节，从position读到limit
+     * @param raw        输出，长度恰好为原始长度
+     * @throws IOException 数据损坏
+     */
+    void decompress(ByteBuffer compressed, byte[] raw) throws IOException;
+}
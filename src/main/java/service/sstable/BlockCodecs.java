@@ -0,0 +1,45 @@
+package service.sstable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 块压缩算法的注册表，读取时按块索引中的编号查找解压算法。
+ * 内置{@link DeflateBlockCodec}，解压与压缩级别无关，注册的是默认级别的实例。
+ */
+public final class BlockCodecs {
+
+    /**
+     * 不压缩的块的算法编号
+     */
+    public static final byte NONE = 0;
+
+    private static final Map<Byte, BlockCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(new DeflateBlockCodec());
+    }
+
+    private BlockCodecs() {
+    }
+
+    /**
+     * 注册一个压缩算法，编号已被占用时替换
+     *
+     * @param codec 算法
+     */
+    public static void register(BlockCodec codec) {
+        if (codec.getId() == NONE) {
+            throw new IllegalArgumentException("编号0保留给不压缩的块");
+        }
+        CODECS.put(codec.getId(), codec);
+    }
+
+    /**
+     * @param id 块索引中的算法编号
+     * @return 算法，未注册返回null
+     */
+    public static BlockCodec forId(byte id) {
+        return CODECS.get(id);
+    }
+}
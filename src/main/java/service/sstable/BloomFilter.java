@@ -0,0 +1,151 @@
+package service.sstable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * 布隆过滤器，每个SSTable一个，判断key“一定不存在”时可以跳过该文件的磁盘访问。
+ * <p>
+ * 采用双重哈希：对key求一个64位哈希，拆成h1、h2，第i个探测位为 h1 + i * h2。
+ * 持久化格式：[int version][int numHashes][int numLongs][long...][long crc32]，
+ * 与table文件同名加.filter后缀。
+ */
+public class BloomFilter {
+
+    public static final String SUFFIX = ".filter";
+    private static final int VERSION = 1;
+
+    private final long[] bits;
+    private final int numHashes;
+    private final long numBits;
+
+    private BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numHashes = numHashes;
+        this.numBits = (long) bits.length * 64;
+    }
+
+    /**
+     * 根据key哈希构建过滤器
+     *
+     * @param keyHashes  {@link #hash}得到的key哈希
+     * @param count      有效哈希个数
+     * @param bitsPerKey 每个key占用的位数，越大误判率越低，10位约1%
+     * @return 过滤器
+     */
+    public static BloomFilter build(long[] keyHashes, int count, int bitsPerKey) {
+        // k = bitsPerKey * ln2 时误判率最低
+        int numHashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+        long totalBits = Math.max(64, (long) count * bitsPerKey);
+        long[] bits = new long[(int) ((totalBits + 63) / 64)];
+        BloomFilter filter = new BloomFilter(bits, numHashes);
+        for (int i = 0; i < count; i++) {
+            filter.add(keyHashes[i]);
+        }
+        return filter;
+    }
+
+    private void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * key的64位哈希：逐字符FNV-1a，再用murmur3的fmix64打散
+     */
+    public static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 写入过滤器文件，先写临时文件再原子改名
+     */
+    public void writeTo(String filterPath) throws IOException {
+        String tempPath = filterPath + ".tmp";
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(tempPath);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(VERSION);
+            out.writeInt(numHashes);
+            out.writeInt(bits.length);
+            for (long word : bits) {
+                out.writeLong(word);
+                updateCrc(crc, word);
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(Paths.get(tempPath), Paths.get(filterPath), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 读取过滤器文件
+     *
+     * @return 过滤器，文件不存在或损坏时返回null
+     */
+    public static BloomFilter readFrom(String filterPath) {
+        File file = new File(filterPath);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            int numHashes = in.readInt();
+            int numLongs = in.readInt();
+            if (numHashes <= 0 || numLongs <= 0 || (long) numLongs * 8 + 20 != file.length()) {
+                return null;
+            }
+            long[] bits = new long[numLongs];
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < numLongs; i++) {
+                bits[i] = in.readLong();
+                updateCrc(crc, bits[i]);
+            }
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+            return new BloomFilter(bits, numHashes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void updateCrc(CRC32 crc, long word) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (word >>> shift));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package service.sstable;
+
+import model.command.Command;
+import model.command.SetCommand;
+
+import java.util.Arrays;
+
+/**
+ * 解码后的数据块，key有序，块内点查为二分查找。
+ * 块缓存中存放的就是这个对象，命中时不需要再解析任何字节。
+ */
+public class DataBlock {
+
+    /**
+     * 每个条目的固定开销估算：两个引用、String和命令对象头
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final String[] keys;
+    private final Command[] commands;
+    private final int charge;
+
+    DataBlock(String[] keys, Command[] commands, int count) {
+        this.keys = count == keys.length ? keys : Arrays.copyOf(keys, count);
+        this.commands = count == commands.length ? commands : Arrays.copyOf(commands, count);
+        int bytes = 64;
+        for (int i = 0; i < count; i++) {
+            bytes += ENTRY_OVERHEAD + keys[i].length() * 2;
+            if (commands[i] instanceof SetCommand && ((SetCommand) commands[i]).getValue() != null) {
+                bytes += ((SetCommand) commands[i]).getValue().length() * 2;
+            }
+        }
+        this.charge = bytes;
+    }
+
+    public Command get(String key) {
+        int idx = Arrays.binarySearch(keys, key);
+        return idx >= 0 ? commands[idx] : null;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String keyAt(int idx) {
+        return keys[idx];
+    }
+
+    public Command commandAt(int idx) {
+        return commands[idx];
+    }
+
+    /**
+     * @return 估算的堆内存占用，用于块缓存按字节计算容量
+     */
+    public int getCharge() {
+        return charge;
+    }
+}
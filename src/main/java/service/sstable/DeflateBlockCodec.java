@@ -0,0 +1,97 @@
+package service.sstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于{@link Deflater}的块压缩，输出不带zlib头和校验和的原始deflate流，数据块很小，省下这几个字节也有意义。
+ * Deflater和Inflater都持有本地内存且不是线程安全的，每个线程复用一个，用前reset。
+ */
+public class DeflateBlockCodec implements BlockCodec {
+
+    public static final byte ID = 1;
+
+    private final int level;
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DeflateBlockCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level 压缩级别，1最快，9压缩率最高，-1为默认级别（6）
+     */
+    public DeflateBlockCodec(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("非法的压缩级别: " + level);
+        }
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public byte[] compress(byte[] raw, int length) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        byte[] out = new byte[length / 2 + 64];
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    @Override
+    public void decompress(ByteBuffer compressed, byte[] raw) throws IOException {
+        byte[] input;
+        int offset;
+        if (compressed.hasArray()) {
+            input = compressed.array();
+            offset = compressed.arrayOffset() + compressed.position();
+        } else {
+            // 映射区上的切片没有底层数组，复制出来；Java 8的Inflater只接受数组
+            input = new byte[compressed.remaining()];
+            compressed.duplicate().get(input);
+            offset = 0;
+        }
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(input, offset, compressed.remaining());
+        try {
+            int size = 0;
+            while (size < raw.length) {
+                int n = inflater.inflate(raw, size, raw.length - size);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != raw.length) {
+                throw new IOException("压缩块损坏: 解压得到" + size + "字节，期望" + raw.length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩块损坏", e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package service.sstable;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 布隆过滤器的命中统计，只统计key落在文件范围内、真正查询了过滤器的查找。
+ * hit：过滤器判断可能存在且确实读到了key；
+ * miss：过滤器判断不存在，跳过了该文件的磁盘访问；
+ * falsePositive：过滤器判断可能存在，读块后发现并不存在。
+ */
+public class FilterStats {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return 过滤器放行的查询中实际不存在的比例
+     */
+    public double getFalsePositiveRate() {
+        long positives = getHits() + getFalsePositives();
+        return positives == 0 ? 0 : (double) getFalsePositives() / positives;
+    }
+
+    @Override
+    public String toString() {
+        return "FilterStats{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", falsePositives=" + getFalsePositives() +
+                '}';
+    }
+}
@@ -0,0 +1,116 @@
+package service.sstable;
+
+import model.command.Command;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * 多路归并迭代器，把若干个按key升序的迭代器合并成一个按key升序的流，同一个key只输出最新的命令。
+ * <p>
+ * 输入列表按从新到旧排列，下标越小越新。小顶堆按 (key, 下标) 排序，
+ * 堆顶即为当前最小key的最新版本，输出后跳过其余输入中相同key的旧版本。
+ * 每个输入只在内存中保留当前一条命令和它所在的数据块，内存占用与输入个数成正比，与数据量无关。
+ */
+public class MergingIterator implements TableIterator {
+
+    private final List<? extends TableIterator> sources;
+    private final PriorityQueue<Head> heap;
+
+    /**
+     * 被更新版本覆盖而丢弃的命令的接收者，为null时不通知
+     */
+    private final Consumer<Command> onShadowed;
+    private Command next;
+
+    /**
+     * @param sources 输入迭代器，按从新到旧排列
+     */
+    public MergingIterator(List<? extends TableIterator> sources) {
+        this(sources, null);
+    }
+
+    /**
+     * @param sources    输入迭代器，按从新到旧排列
+     * @param onShadowed 接收被丢弃的旧版本，压缩用它统计不再被引用的blob值
+     */
+    public MergingIterator(List<? extends TableIterator> sources, Consumer<Command> onShadowed) {
+        this.sources = sources;
+        this.onShadowed = onShadowed;
+        this.heap = new PriorityQueue<>(Math.max(1, sources.size()));
+        for (int i = 0; i < sources.size(); i++) {
+            TableIterator it = sources.get(i);
+            if (it.hasNext()) {
+                heap.add(new Head(it.next(), i, it));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        Head head = heap.poll();
+        if (head == null) {
+            return false;
+        }
+        next = head.command;
+        advance(head);
+        // 丢弃其他输入中相同key的旧版本
+        while (!heap.isEmpty() && heap.peek().command.getKey().equals(next.getKey())) {
+            Head shadowed = heap.poll();
+            if (onShadowed != null) {
+                onShadowed.accept(shadowed.command);
+            }
+            advance(shadowed);
+        }
+        return true;
+    }
+
+    @Override
+    public Command next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Command command = next;
+        next = null;
+        return command;
+    }
+
+    private void advance(Head head) {
+        if (head.source.hasNext()) {
+            head.command = head.source.next();
+            heap.add(head);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (TableIterator source : sources) {
+            source.close();
+        }
+        heap.clear();
+        next = null;
+    }
+
+    private static final class Head implements Comparable<Head> {
+        private Command command;
+        private final int rank;
+        private final TableIterator source;
+
+        Head(Command command, int rank, TableIterator source) {
+            this.command = command;
+            this.rank = rank;
+            this.source = source;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int cmp = command.getKey().compareTo(other.command.getKey());
+            return cmp != 0 ? cmp : Integer.compare(rank, other.rank);
+        }
+    }
+}
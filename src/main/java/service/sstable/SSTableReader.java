@@ -0,0 +1,596 @@
+package service.sstable;
+
+import model.command.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.cache.BlockCache;
+import utils.CommandCodec;
+import utils.LoggerUtil;
+import utils.MappedFileUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SSTable读取器。
+ * 打开时只读取footer、索引块和元数据块，点查通过二分索引定位到唯一的数据块后只读这一个块。
+ * <p>
+ * 滚动后的table文件不可变，打开时以只读方式整体映射到内存，读块只是在映射区上切片，
+ * 既不复制也没有系统调用；超过2GB无法整体映射的文件退回FileChannel定位读。
+ * <p>
+ * 映射的释放依赖引用计数：读者通过{@link #retain()}/{@link #release()}持有文件，
+ * {@link #close()}只释放创建者持有的那一份引用，最后一个读者释放后才真正unmap，
+ * 合并删除文件时不会有读者访问到已释放的映射。
+ * <p>
+ * 打开时加载同名的.filter布隆过滤器，缺失或损坏时扫描一遍key重建并写回。
+ * <p>
+ * 版本1的文件没有层级信息，视为第0层，顺序号取文件编号。
+ * 版本3起数据块单独压缩，索引中多了原始长度和算法编号；之前版本的块都未压缩，照常读取。
+ * 解压只发生在读块时，块缓存中存放的是解压解码后的结果，命中时不再解压。
+ * 版本4起元数据块记录删除命令的条数，之前版本的文件视为没有删除命令，随正常压缩重写后才有统计。
+ * <p>
+ * 点查读到的块解码后放入共享的{@link BlockCache}，再次命中时直接在解码结果上二分查找；
+ * 顺序遍历（合并、扫描）不填充缓存，避免一次性扫描冲掉热点块。
+ */
+public class SSTableReader implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SSTableReader.class);
+    private static final String logFormat = "[SSTableReader][{}]: {}";
+
+    public static final long MAGIC = 0x45415359_44425354L; // "EASYDBST"
+    public static final int VERSION = 4;
+    public static final int FOOTER_SIZE = 8 + 4 + 8 + 4 + 4 + 8;
+
+    private final String filePath;
+    private final long fileId;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+
+    /**
+     * 整个文件的只读映射，文件过大时为null
+     */
+    private final MappedByteBuffer mapped;
+
+    /**
+     * 引用计数，初始1为创建者持有
+     */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * 稀疏索引：每个数据块的最大key、偏移和长度
+     */
+    private final String[] blockLastKeys;
+    private final long[] blockOffsets;
+    private final int[] blockSizes;
+    private final int[] blockRawSizes;
+    private final byte[] blockCodecs;
+
+    private final String smallestKey;
+    private final String largestKey;
+    private final long entryCount;
+    private final int level;
+    private final long orderId;
+    private final long tombstoneCount;
+
+    private final BloomFilter filter;
+
+    /**
+     * 共享块缓存，为null时不缓存
+     */
+    private final BlockCache blockCache;
+
+    public SSTableReader(String filePath, long fileId, int bloomBitsPerKey, BlockCache blockCache) throws IOException {
+        this.filePath = filePath;
+        this.fileId = fileId;
+        this.blockCache = blockCache;
+        this.file = new RandomAccessFile(filePath, "r");
+        this.channel = file.getChannel();
+        MappedByteBuffer map = null;
+        try {
+            // 映射也可能失败（地址空间不足、文件被截断），失败时同样要关闭文件
+            this.fileSize = channel.size();
+            map = fileSize <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize) : null;
+            this.mapped = map;
+            if (fileSize < FOOTER_SIZE) {
+                throw new IOException("不是合法的SSTable文件: " + filePath);
+            }
+            ByteBuffer footer = read(fileSize - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            int indexSize = footer.getInt();
+            long metaOffset = footer.getLong();
+            int metaSize = footer.getInt();
+            int version = footer.getInt();
+            long magic = footer.getLong();
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("不是合法的SSTable文件: " + filePath);
+            }
+
+            ByteBuffer index = read(indexOffset, indexSize);
+            int entryTail = version >= 3 ? 8 + 4 + 4 + 1 : 8 + 4;
+            int blockCount = 0;
+            while (index.hasRemaining()) {
+                int keyLen = index.getInt();
+                index.position(index.position() + keyLen + entryTail);
+                blockCount++;
+            }
+            index.rewind();
+            this.blockLastKeys = new String[blockCount];
+            this.blockOffsets = new long[blockCount];
+            this.blockSizes = new int[blockCount];
+            this.blockRawSizes = new int[blockCount];
+            this.blockCodecs = new byte[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockLastKeys[i] = readString(index);
+                blockOffsets[i] = index.getLong();
+                blockSizes[i] = index.getInt();
+                if (version >= 3) {
+                    blockRawSizes[i] = index.getInt();
+                    blockCodecs[i] = index.get();
+                    if (blockCodecs[i] != BlockCodecs.NONE && BlockCodecs.forId(blockCodecs[i]) == null) {
+                        throw new IOException("未知的块压缩算法" + blockCodecs[i] + ": " + filePath);
+                    }
+                } else {
+                    blockRawSizes[i] = blockSizes[i];
+                    blockCodecs[i] = BlockCodecs.NONE;
+                }
+            }
+
+            ByteBuffer meta = read(metaOffset, metaSize);
+            this.smallestKey = readString(meta);
+            this.largestKey = readString(meta);
+            this.entryCount = meta.getLong();
+            if (version >= 2) {
+                this.level = meta.getInt();
+                this.orderId = meta.getLong();
+            } else {
+                this.level = 0;
+                this.orderId = fileId;
+            }
+            this.tombstoneCount = version >= 4 ? meta.getLong() : 0;
+
+            BloomFilter loaded = BloomFilter.readFrom(getFilterPath());
+            if (loaded == null) {
+                loaded = rebuildFilter(bloomBitsPerKey);
+            }
+            this.filter = loaded;
+        } catch (IOException | RuntimeException e) {
+            MappedFileUtil.unmap(map);
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 判断文件末尾是否为SSTable的footer，用于区分旧版长度前缀格式的table文件。
+     *
+     * @param tableFile 文件
+     * @return 是SSTable返回true
+     */
+    public static boolean isTable(File tableFile) {
+        if (tableFile.length() < FOOTER_SIZE) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tableFile, "r")) {
+            raf.seek(raf.length() - 12);
+            int version = raf.readInt();
+            return version >= 1 && version <= VERSION && raf.readLong() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 扫描所有key重建布隆过滤器并写回，用于旧文件或过滤器文件损坏的情况
+     */
+    private BloomFilter rebuildFilter(int bitsPerKey) throws IOException {
+        long[] hashes = new long[(int) entryCount];
+        int count = 0;
+        for (int i = 0; i < blockLastKeys.length; i++) {
+            ByteBuffer block = readBlock(i);
+            while (block.hasRemaining()) {
+                String key = readString(block);
+                block.position(block.position() + block.getInt());
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, Math.max(16, count * 2));
+                }
+                hashes[count++] = BloomFilter.hash(key);
+            }
+        }
+        BloomFilter rebuilt = BloomFilter.build(hashes, count, bitsPerKey);
+        rebuilt.writeTo(getFilterPath());
+        return rebuilt;
+    }
+
+    /**
+     * 判断key是否可能在本文件中：先比较key范围，再查布隆过滤器，不访问数据块。
+     *
+     * @param key 键
+     * @return 返回false时key一定不在本文件中
+     */
+    public boolean mayContain(String key) {
+        if (!inKeyRange(key)) {
+            return false;
+        }
+        return filter.mightContain(key);
+    }
+
+    /**
+     * 判断key是否落在本文件的[最小key, 最大key]范围内，不查布隆过滤器
+     */
+    public boolean inKeyRange(String key) {
+        return blockLastKeys.length > 0 && key.compareTo(smallestKey) >= 0 && key.compareTo(largestKey) <= 0;
+    }
+
+    /**
+     * 点查，二分定位数据块后在块内顺序查找。
+     *
+     * @param key 键
+     * @return 命令（可能是删除标记），不存在返回null
+     * @throws IOException 读取失败
+     */
+    public Command get(String key) throws IOException {
+        if (blockLastKeys.length == 0 || key.compareTo(smallestKey) < 0 || key.compareTo(largestKey) > 0) {
+            return null;
+        }
+        int blockIdx = findBlock(key);
+        if (blockIdx < 0) {
+            return null;
+        }
+        if (!retain()) {
+            throw new IOException("SSTable已关闭: " + filePath);
+        }
+        try {
+            return getBlock(blockIdx, true).get(key);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 批量点查。key按升序处理，落在同一个数据块的key只读取和解码该块一次，块按偏移顺序访问。
+     *
+     * @param sortedKeys 升序排列的key，调用方应先用{@link #mayContain}过滤
+     * @return 找到的key及其命令（可能是删除标记）
+     * @throws IOException 读取失败
+     */
+    public Map<String, Command> multiGet(List<String> sortedKeys) throws IOException {
+        Map<String, Command> found = new HashMap<>();
+        if (blockLastKeys.length == 0 || sortedKeys.isEmpty()) {
+            return found;
+        }
+        if (!retain()) {
+            throw new IOException("SSTable已关闭: " + filePath);
+        }
+        try {
+            int blockIdx = -1;
+            DataBlock block = null;
+            for (String key : sortedKeys) {
+                if (key.compareTo(smallestKey) < 0 || key.compareTo(largestKey) > 0) {
+                    continue;
+                }
+                // key升序，所在块只会向后移动，同一块内的key复用已解码的块
+                if (block == null || blockLastKeys[blockIdx].compareTo(key) < 0) {
+                    int idx = findBlock(key);
+                    if (idx < 0) {
+                        break;
+                    }
+                    if (idx != blockIdx) {
+                        blockIdx = idx;
+                        block = getBlock(blockIdx, true);
+                    }
+                }
+                Command command = block.get(key);
+                if (command != null) {
+                    found.put(key, command);
+                }
+            }
+        } finally {
+            release();
+        }
+        return found;
+    }
+
+    /**
+     * 找到第一个最大key不小于目标key的数据块
+     */
+    private int findBlock(String key) {
+        int low = 0;
+        int high = blockLastKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blockLastKeys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return blockLastKeys[low].compareTo(key) >= 0 ? low : -1;
+    }
+
+    /**
+     * 按key升序遍历整个文件，逐块读取。
+     * 迭代器创建时持有文件引用，遍历结束时释放，中途放弃遍历需调用{@link TableIterator#close()}。
+     *
+     * @return 命令迭代器
+     */
+    public TableIterator iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * 从第一个不小于from的key开始按升序遍历，二分定位起始数据块，之前的块不读取。
+     *
+     * @param from 起始key（含），null表示从头开始
+     * @return 命令迭代器，释放规则同{@link #iterator()}
+     */
+    public TableIterator iterator(String from) {
+        if (!retain()) {
+            throw new IllegalStateException("SSTable已关闭: " + filePath);
+        }
+        int startBlock = 0;
+        if (from != null && blockLastKeys.length > 0) {
+            startBlock = findBlock(from);
+            if (startBlock < 0) {
+                startBlock = blockLastKeys.length;
+            }
+        }
+        final int firstBlock = startBlock;
+        return new TableIterator() {
+            private int blockIdx = firstBlock;
+            private DataBlock block;
+            private int entryIdx;
+            private boolean released;
+
+            @Override
+            public boolean hasNext() {
+                while (block == null || entryIdx >= block.size()) {
+                    if (released || blockIdx >= blockLastKeys.length) {
+                        close();
+                        return false;
+                    }
+                    try {
+                        boolean first = blockIdx == firstBlock;
+                        block = getBlock(blockIdx++, false);
+                        entryIdx = 0;
+                        // 起始块中跳过小于from的key
+                        while (first && from != null && entryIdx < block.size()
+                                && block.keyAt(entryIdx).compareTo(from) < 0) {
+                            entryIdx++;
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Command next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return block.commandAt(entryIdx++);
+            }
+
+            @Override
+            public void close() {
+                if (!released) {
+                    released = true;
+                    block = null;
+                    release();
+                }
+            }
+        };
+    }
+
+    /**
+     * 直接在块缓冲区上解码一条记录，不复制记录字节
+     */
+    private static Command decodeRecord(ByteBuffer block, int recordLen) {
+        ByteBuffer record = block.slice();
+        record.limit(recordLen);
+        block.position(block.position() + recordLen);
+        return CommandCodec.decode(record);
+    }
+
+    /**
+     * 获取解码后的数据块，优先从块缓存中取
+     *
+     * @param blockIdx  块序号
+     * @param fillCache 未命中时是否放入缓存
+     */
+    private DataBlock getBlock(int blockIdx, boolean fillCache) throws IOException {
+        long offset = blockOffsets[blockIdx];
+        if (blockCache != null) {
+            DataBlock cached = blockCache.get(fileId, offset);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        DataBlock block = decodeBlock(readBlock(blockIdx));
+        if (blockCache != null && fillCache) {
+            blockCache.put(fileId, offset, block);
+        }
+        return block;
+    }
+
+    private static DataBlock decodeBlock(ByteBuffer buffer) {
+        String[] keys = new String[64];
+        Command[] commands = new Command[64];
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                commands = Arrays.copyOf(commands, count * 2);
+            }
+            keys[count] = readString(buffer);
+            commands[count] = decodeRecord(buffer, buffer.getInt());
+            count++;
+        }
+        return new DataBlock(keys, commands, count);
+    }
+
+    /**
+     * 读取一个数据块，压缩的块解压后返回
+     */
+    private ByteBuffer readBlock(int blockIdx) throws IOException {
+        ByteBuffer stored = read(blockOffsets[blockIdx], blockSizes[blockIdx]);
+        if (blockCodecs[blockIdx] == BlockCodecs.NONE) {
+            return stored;
+        }
+        byte[] raw = new byte[blockRawSizes[blockIdx]];
+        BlockCodecs.forId(blockCodecs[blockIdx]).decompress(stored, raw);
+        return ByteBuffer.wrap(raw);
+    }
+
+    private ByteBuffer read(long position, int size) throws IOException {
+        if (mapped != null) {
+            ByteBuffer slice = mapped.duplicate();
+            slice.limit((int) position + size);
+            slice.position((int) position);
+            return slice.slice();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("SSTable文件被截断: " + filePath);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public String getFilterPath() {
+        return filePath + BloomFilter.SUFFIX;
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public String getSmallestKey() {
+        return smallestKey;
+    }
+
+    public String getLargestKey() {
+        return largestKey;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return 删除命令的条数
+     */
+    public long getTombstoneCount() {
+        return tombstoneCount;
+    }
+
+    /**
+     * @return 删除命令占全部条目的比例
+     */
+    public double tombstoneRatio() {
+        return entryCount == 0 ? 0 : (double) tombstoneCount / entryCount;
+    }
+
+    /**
+     * @return 所在的压缩层级，第0层文件之间key范围可以重叠
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return 新旧顺序号，同一层内越大越新
+     */
+    public long getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * 判断本文件的key范围是否与[smallest, largest]相交
+     */
+    public boolean overlaps(String smallest, String largest) {
+        return entryCount > 0 && largestKey.compareTo(smallest) >= 0 && smallestKey.compareTo(largest) <= 0;
+    }
+
+    /**
+     * 判断本文件是否含有落在[startKey, endKey)区间内的key，null表示该侧不设界
+     */
+    public boolean intersects(String startKey, String endKey) {
+        return entryCount > 0
+                && (startKey == null || largestKey.compareTo(startKey) >= 0)
+                && (endKey == null || smallestKey.compareTo(endKey) < 0);
+    }
+
+    /**
+     * 增加一个读者引用
+     *
+     * @return 文件已被释放时返回false
+     */
+    public boolean retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时unmap并关闭文件
+     */
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            MappedFileUtil.unmap(mapped);
+            try {
+                file.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "release", "close " + filePath + " failed");
+            }
+        }
+    }
+
+    /**
+     * 释放创建者持有的引用，仍有读者时延迟到最后一个读者释放
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+}
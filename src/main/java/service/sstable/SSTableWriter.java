@@ -0,0 +1,237 @@
+package service.sstable;
+
+import model.command.Command;
+import model.command.RmCommand;
+import utils.CommandUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SSTable写入器，按key升序追加命令，生成有序的块结构table文件。
+ * <p>
+ * 文件布局：
+ * <pre>
+ * [data block 0][data block 1]...[index block][meta block][footer]
+ * data block : 重复的 [int keyLen][key][int recordLen][record]
+ * index block: 每个数据块一项 [int keyLen][块内最大key][long offset][int size][int rawSize][byte codec]
+ * meta block : [int len][最小key][int len][最大key][long entryCount][int level][long orderId][long tombstoneCount]
+ * footer     : [long indexOffset][int indexSize][long metaOffset][int metaSize][int version][long magic]
+ * </pre>
+ * 每个数据块按{@link BlockCodec}单独压缩，offset和size是压缩后在文件中的位置，rawSize是解压后的长度，
+ * codec是算法编号；压缩后省不到八分之一的块原样存放，codec为{@link BlockCodecs#NONE}。
+ * 写入先落到临时文件，finish时fsync并原子改名，保证table文件要么完整要么不存在。
+ * 同时为所有key构建布隆过滤器，在table文件改名之前写到同名的.filter文件。
+ * <p>
+ * level是文件所在的压缩层级；orderId是新旧顺序号，同层内orderId越大数据越新，
+ * 滚动生成的文件取自身文件编号，合并输出取输入中的最大值。tombstoneCount是删除命令的条数，压缩据此优先处理删除密集的文件。
+ */
+public class SSTableWriter implements Closeable {
+
+    /**
+     * 数据块目标大小，超过即切块
+     */
+    public static final int BLOCK_SIZE = 4 * 1024;
+
+    private final String filePath;
+    private final String tempFilePath;
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+
+    /**
+     * 当前写入位置
+     */
+    private long offset;
+
+    /**
+     * 正在构建的数据块
+     */
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+    private final DataOutputStream blockOut = new DataOutputStream(blockBuffer);
+    private String blockLastKey;
+
+    private final List<String> indexKeys = new ArrayList<>();
+    private final List<Long> indexOffsets = new ArrayList<>();
+    private final List<Integer> indexSizes = new ArrayList<>();
+    private final List<Integer> indexRawSizes = new ArrayList<>();
+    private final List<Byte> indexCodecs = new ArrayList<>();
+
+    /**
+     * 数据块压缩算法，null表示不压缩
+     */
+    private final BlockCodec codec;
+
+    private final int bloomBitsPerKey;
+    private long[] keyHashes = new long[256];
+
+    private final int level;
+    private final long orderId;
+
+    private String smallestKey;
+    private String largestKey;
+    private long entryCount;
+    private long tombstoneCount;
+    private boolean finished;
+
+    public SSTableWriter(String filePath, int bloomBitsPerKey, int level, long orderId) throws IOException {
+        this(filePath, bloomBitsPerKey, level, orderId, null);
+    }
+
+    /**
+     * @param codec 数据块压缩算法，null表示不压缩
+     */
+    public SSTableWriter(String filePath, int bloomBitsPerKey, int level, long orderId, BlockCodec codec) throws IOException {
+        this.filePath = filePath;
+        this.codec = codec;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.level = level;
+        this.orderId = orderId;
+        this.tempFilePath = filePath + ".tmp";
+        this.fileOut = new FileOutputStream(tempFilePath);
+        this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+    }
+
+    /**
+     * 追加一条命令，调用方需保证key严格升序。
+     *
+     * @param command 命令
+     * @throws IOException 写入失败
+     */
+    public void add(Command command) throws IOException {
+        String key = command.getKey();
+        if (largestKey != null && largestKey.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("SSTable key必须严格升序: " + largestKey + " >= " + key);
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] record = CommandUtil.encode(command);
+        blockOut.writeInt(keyBytes.length);
+        blockOut.write(keyBytes);
+        blockOut.writeInt(record.length);
+        blockOut.write(record);
+        blockLastKey = key;
+
+        if (smallestKey == null) {
+            smallestKey = key;
+        }
+        largestKey = key;
+        if (entryCount == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        keyHashes[(int) entryCount] = BloomFilter.hash(key);
+        entryCount++;
+        if (command instanceof RmCommand) {
+            tombstoneCount++;
+        }
+
+        if (blockBuffer.size() >= BLOCK_SIZE) {
+            flushBlock();
+        }
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return 已写入的字节数（压缩后）加上正在构建的数据块，用于合并时按大小切分输出文件
+     */
+    public long getEstimatedSize() {
+        return offset + blockBuffer.size();
+    }
+
+    /**
+     * 写出索引块、元数据块和footer，并将临时文件原子替换为正式文件。
+     *
+     * @throws IOException 写入失败
+     */
+    public void finish() throws IOException {
+        flushBlock();
+
+        long indexOffset = offset;
+        for (int i = 0; i < indexKeys.size(); i++) {
+            byte[] keyBytes = indexKeys.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeLong(indexOffsets.get(i));
+            out.writeInt(indexSizes.get(i));
+            out.writeInt(indexRawSizes.get(i));
+            out.writeByte(indexCodecs.get(i));
+            offset += 4 + keyBytes.length + 8 + 4 + 4 + 1;
+        }
+        int indexSize = (int) (offset - indexOffset);
+
+        long metaOffset = offset;
+        byte[] smallest = (smallestKey == null ? "" : smallestKey).getBytes(StandardCharsets.UTF_8);
+        byte[] largest = (largestKey == null ? "" : largestKey).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(smallest.length);
+        out.write(smallest);
+        out.writeInt(largest.length);
+        out.write(largest);
+        out.writeLong(entryCount);
+        out.writeInt(level);
+        out.writeLong(orderId);
+        out.writeLong(tombstoneCount);
+        offset += 4 + smallest.length + 4 + largest.length + 8 + 4 + 8 + 8;
+        int metaSize = (int) (offset - metaOffset);
+
+        out.writeLong(indexOffset);
+        out.writeInt(indexSize);
+        out.writeLong(metaOffset);
+        out.writeInt(metaSize);
+        out.writeInt(SSTableReader.VERSION);
+        out.writeLong(SSTableReader.MAGIC);
+        out.flush();
+        fileOut.getFD().sync();
+        out.close();
+
+        BloomFilter.build(keyHashes, (int) entryCount, bloomBitsPerKey).writeTo(filePath + BloomFilter.SUFFIX);
+        Files.move(Paths.get(tempFilePath), Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING);
+        finished = true;
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockBuffer.size() == 0) {
+            return;
+        }
+        blockOut.flush();
+        int rawSize = blockBuffer.size();
+        int size = rawSize;
+        byte codecId = BlockCodecs.NONE;
+        if (codec != null) {
+            byte[] raw = blockBuffer.toByteArray();
+            byte[] compressed = codec.compress(raw, rawSize);
+            if (compressed.length < rawSize - rawSize / 8) {
+                out.write(compressed);
+                size = compressed.length;
+                codecId = codec.getId();
+            }
+        }
+        if (codecId == BlockCodecs.NONE) {
+            blockBuffer.writeTo(out);
+        }
+        indexKeys.add(blockLastKey);
+        indexOffsets.add(offset);
+        indexSizes.add(size);
+        indexRawSizes.add(rawSize);
+        indexCodecs.add(codecId);
+        offset += size;
+        blockBuffer.reset();
+    }
+
+    /**
+     * 未finish就关闭视为放弃，删除临时文件。
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            out.close();
+            Files.deleteIfExists(Paths.get(tempFilePath));
+        }
+    }
+}
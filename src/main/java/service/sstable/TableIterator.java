@@ -0,0 +1,16 @@
+package service.sstable;
+
+import model.command.Command;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * 按key升序遍历命令的迭代器。
+ * 遍历结束时自动释放持有的资源，中途放弃遍历必须调用{@link #close()}。
+ */
+public interface TableIterator extends Iterator<Command>, Closeable {
+
+    @Override
+    void close();
+}
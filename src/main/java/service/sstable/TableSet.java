@@ -0,0 +1,169 @@
+package service.sstable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 某一时刻的全部SSTable，不可变，变更通过{@link #apply(VersionEdit)}生成新的集合。
+ * <p>
+ * 查找顺序：层级小的在前，同层顺序号大的在前，崩溃残留的同顺序号文件以编号大的为准。
+ * 第0层文件key范围互相重叠，需要逐个检查；第1层及以下的文件按最小key排序，
+ * 同层互不重叠时二分查找到唯一可能包含key的文件，点查时每层最多访问一个文件。
+ * 同层出现重叠（崩溃残留）时该层退回逐个检查，结果仍然正确。
+ */
+public final class TableSet {
+
+    public static final Comparator<SSTableReader> LOOKUP_ORDER = Comparator.comparingInt(SSTableReader::getLevel)
+            .thenComparing(Comparator.comparingLong(SSTableReader::getOrderId).reversed())
+            .thenComparing(Comparator.comparingLong(SSTableReader::getFileId).reversed());
+
+    public static final TableSet EMPTY = new TableSet(Collections.<SSTableReader>emptyList());
+
+    private static final Comparator<SSTableReader> KEY_ORDER = Comparator.comparing(SSTableReader::getSmallestKey);
+
+    /**
+     * 全部文件，按查找顺序排列
+     */
+    private final List<SSTableReader> tables;
+
+    /**
+     * 第0层文件，按查找顺序排列
+     */
+    private final List<SSTableReader> level0;
+
+    /**
+     * 第1层起每层的文件；互不重叠的层按最小key排序，否则按查找顺序排列
+     */
+    private final List<SSTableReader[]> levels;
+    private final List<Boolean> disjoint;
+
+    public TableSet(Collection<SSTableReader> tables) {
+        List<SSTableReader> sorted = new ArrayList<>(tables);
+        sorted.sort(LOOKUP_ORDER);
+        this.tables = Collections.unmodifiableList(sorted);
+
+        List<SSTableReader> l0 = new ArrayList<>();
+        List<List<SSTableReader>> byLevel = new ArrayList<>();
+        for (SSTableReader table : sorted) {
+            if (table.getLevel() == 0) {
+                l0.add(table);
+                continue;
+            }
+            while (byLevel.size() < table.getLevel()) {
+                byLevel.add(new ArrayList<>());
+            }
+            byLevel.get(table.getLevel() - 1).add(table);
+        }
+        this.level0 = Collections.unmodifiableList(l0);
+        this.levels = new ArrayList<>(byLevel.size());
+        this.disjoint = new ArrayList<>(byLevel.size());
+        for (List<SSTableReader> files : byLevel) {
+            List<SSTableReader> nonEmpty = new ArrayList<>(files.size());
+            for (SSTableReader file : files) {
+                if (file.getEntryCount() > 0) {
+                    nonEmpty.add(file);
+                }
+            }
+            List<SSTableReader> byKey = new ArrayList<>(nonEmpty);
+            byKey.sort(KEY_ORDER);
+            boolean isDisjoint = true;
+            for (int i = 1; i < byKey.size(); i++) {
+                if (byKey.get(i - 1).getLargestKey().compareTo(byKey.get(i).getSmallestKey()) >= 0) {
+                    isDisjoint = false;
+                    break;
+                }
+            }
+            levels.add((isDisjoint ? byKey : nonEmpty).toArray(new SSTableReader[0]));
+            disjoint.add(isDisjoint);
+        }
+    }
+
+    /**
+     * 应用一次增量变更，返回新的集合，本集合不变
+     *
+     * @param edit 变更
+     * @return 新集合
+     */
+    public TableSet apply(VersionEdit edit) {
+        Map<SSTableReader, Boolean> removed = new IdentityHashMap<>();
+        for (SSTableReader table : edit.getRemoved()) {
+            removed.put(table, Boolean.TRUE);
+        }
+        List<SSTableReader> next = new ArrayList<>(tables.size() + edit.getAdded().size());
+        for (SSTableReader table : tables) {
+            if (!removed.containsKey(table)) {
+                next.add(table);
+            }
+        }
+        next.addAll(edit.getAdded());
+        return new TableSet(next);
+    }
+
+    /**
+     * 按查找顺序返回key范围包含key的文件：第0层和有重叠的层逐个比较，互不重叠的层二分查找。
+     * 范围之外的文件不返回，调用方统计的布隆过滤器结果只包含真正查询了过滤器的文件
+     *
+     * @param key 键
+     * @return 候选文件，调用方仍需通过{@link SSTableReader#mayContain}检查布隆过滤器
+     */
+    public List<SSTableReader> candidates(String key) {
+        List<SSTableReader> result = new ArrayList<>(level0.size() + levels.size());
+        for (SSTableReader file : level0) {
+            if (file.inKeyRange(key)) {
+                result.add(file);
+            }
+        }
+        for (int i = 0; i < levels.size(); i++) {
+            SSTableReader[] files = levels.get(i);
+            if (!disjoint.get(i)) {
+                for (SSTableReader file : files) {
+                    if (file.inKeyRange(key)) {
+                        result.add(file);
+                    }
+                }
+                continue;
+            }
+            SSTableReader file = findFile(files, key);
+            if (file != null && file.inKeyRange(key)) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在按最小key排序且互不重叠的文件中二分查找第一个最大key不小于目标key的文件
+     */
+    private static SSTableReader findFile(SSTableReader[] files, String key) {
+        int low = 0;
+        int high = files.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (files[mid].getLargestKey().compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == files.length || files[low].getSmallestKey().compareTo(key) > 0) {
+            return null;
+        }
+        return files[low];
+    }
+
+    /**
+     * @return 全部文件，按查找顺序排列
+     */
+    public List<SSTableReader> all() {
+        return tables;
+    }
+
+    public int size() {
+        return tables.size();
+    }
+}
@@ -0,0 +1,44 @@
+package service.sstable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 对SSTable集合的一次增量变更：新增的文件和移除的文件。
+ * 文件滚动只新增一个文件，压缩移除输入并新增输出，由{@link TableSet#apply}一次性生效，
+ * 不需要重新扫描数据目录。
+ */
+public class VersionEdit {
+
+    private final List<SSTableReader> added = new ArrayList<>();
+    private final List<SSTableReader> removed = new ArrayList<>();
+
+    public VersionEdit addTable(SSTableReader table) {
+        added.add(table);
+        return this;
+    }
+
+    public VersionEdit addTables(List<SSTableReader> tables) {
+        added.addAll(tables);
+        return this;
+    }
+
+    public VersionEdit removeTable(SSTableReader table) {
+        removed.add(table);
+        return this;
+    }
+
+    public VersionEdit removeTables(List<SSTableReader> tables) {
+        removed.addAll(tables);
+        return this;
+    }
+
+    public List<SSTableReader> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    public List<SSTableReader> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+}
@@ -0,0 +1,19 @@
+package service.wal;
+
+/**
+ * 预写日志的刷盘策略
+ */
+public enum SyncPolicy {
+    /*
+     * 只写入操作系统缓存，从不主动fsync，进程崩溃不丢数据，掉电可能丢失
+     * */
+    NONE,
+    /*
+     * 写入操作系统缓存，由后台线程按固定间隔fsync
+     * */
+    INTERVAL,
+    /*
+     * 每次写入都等待fsync完成，并发写入合并为一次fsync
+     * */
+    ALWAYS
+}
@@ -0,0 +1,333 @@
+package service.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 预写日志，所有变更先追加到这里再写内存表，重启时回放未刷盘的部分。
+ * <p>
+ * 日志按段存放为 wal + 段号 + .log，每条记录为 [int len][int crc32][record]。
+ * 批量写入的多条记录合并为一条批记录：record为 [byte 0][int count]{[int len][record]}，
+ * 整批共用一个校验和，崩溃时要么整批回放、要么整批丢弃；单条记录的首字节不会是0。
+ * 内存表切换时滚动到新段，旧段在对应内存表持久化后删除。
+ * <p>
+ * 组提交：{@link #append}只把记录放入待写队列并返回序号，调用方释放引擎锁后再调用{@link #sync}，
+ * 第一个进入的线程把队列中所有记录一次性写出（按策略决定是否fsync），
+ * 其余等待的线程发现自己的序号已落盘后直接返回，多次写入合并为一次系统调用。
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final String PREFIX = "wal";
+    public static final String SUFFIX = ".log";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("^" + PREFIX + "(\\d+)\\" + SUFFIX + "$");
+    private static final int HEADER_SIZE = 8;
+    private static final byte BATCH_MARKER = 0;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+    private final String logFormat = "[WriteAheadLog][{}]: {}";
+
+    private final String dir;
+    private final SyncPolicy policy;
+    private final Object syncMonitor = new Object();
+    private ScheduledExecutorService syncScheduler;
+
+    private FileChannel channel;
+    private long segmentId;
+
+    /**
+     * 待写出的记录及其序号
+     */
+    private List<byte[]> pending = new ArrayList<>();
+    private long appendedSeq;
+    private volatile long syncedSeq;
+    private boolean dirty;
+
+    public WriteAheadLog(String dir, SyncPolicy policy, long syncIntervalMs) {
+        this.dir = dir;
+        this.policy = policy;
+        if (policy == SyncPolicy.INTERVAL) {
+            syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncScheduler.scheduleWithFixedDelay(this::forceQuietly, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 按段号顺序回放已有的日志段，然后打开一个新段供后续写入。
+     * 遇到截断或校验失败的记录即停止该段的回放，视为崩溃时未写完的尾部。
+     * 回放的记录按顺序从1开始编号，之后追加的记录序号接着回放的继续增长。
+     *
+     * @param consumer 记录消费者，同时接收记录序号
+     * @throws IOException 读取或创建日志失败
+     */
+    public void open(ObjLongConsumer<byte[]> consumer) throws IOException {
+        long replayed = 0;
+        TreeMap<Long, File> segments = listSegments();
+        for (File segment : segments.values()) {
+            int count = 0;
+            // 段内剩余的字节数，损坏的长度字段不能当作真实长度分配内存
+            long remaining = segment.length();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 64 * 1024))) {
+                while (true) {
+                    int len;
+                    try {
+                        len = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int crc = in.readInt();
+                    remaining -= HEADER_SIZE;
+                    if (len < 0 || len > remaining) {
+                        LoggerUtil.info(LOGGER, logFormat, "open", "invalid record length " + len + ", stop replaying " + segment.getName());
+                        break;
+                    }
+                    remaining -= len;
+                    byte[] record = new byte[len];
+                    in.readFully(record);
+                    if (crc(record) != crc) {
+                        LoggerUtil.info(LOGGER, logFormat, "open", "checksum mismatch, stop replaying " + segment.getName());
+                        break;
+                    }
+                    if (record.length > 0 && record[0] == BATCH_MARKER) {
+                        // 批记录拆开逐条回放，序号与写入时分配的一致
+                        ByteBuffer batch = ByteBuffer.wrap(record, 1, record.length - 1);
+                        int n = batch.getInt();
+                        for (int i = 0; i < n; i++) {
+                            byte[] item = new byte[batch.getInt()];
+                            batch.get(item);
+                            consumer.accept(item, ++replayed);
+                        }
+                        count += n;
+                    } else {
+                        consumer.accept(record, ++replayed);
+                        count++;
+                    }
+                }
+            } catch (EOFException e) {
+                LoggerUtil.info(LOGGER, logFormat, "open", "truncated record at tail of " + segment.getName());
+            }
+            LoggerUtil.info(LOGGER, logFormat, "open", "replayed " + count + " records from " + segment.getName());
+        }
+        long nextId = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        synchronized (syncMonitor) {
+            openSegment(nextId);
+            synchronized (this) {
+                appendedSeq = replayed;
+            }
+            syncedSeq = replayed;
+        }
+    }
+
+    /**
+     * 追加一条记录到待写队列，可以并发调用，序号的顺序即为记录在日志中的顺序。
+     * 内存表以这个序号判断同一个key的新旧，并发写入无需在引擎锁内排队。
+     *
+     * @param record 记录
+     * @return 记录序号，用于{@link #sync}，同时作为内存表条目的写入序号
+     */
+    public synchronized long append(byte[] record) {
+        pending.add(record);
+        return ++appendedSeq;
+    }
+
+    /**
+     * 把多条记录作为一条批记录追加，占用连续的序号，崩溃恢复时整批生效或整批丢弃。
+     *
+     * @param records 记录，按顺序分配序号
+     * @return 最后一条记录的序号，第i条（从0开始）的序号为 返回值 - size + 1 + i
+     */
+    public long appendBatch(List<byte[]> records) {
+        int size = 1 + 4;
+        for (byte[] record : records) {
+            size += 4 + record.length;
+        }
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        batch.put(BATCH_MARKER);
+        batch.putInt(records.size());
+        for (byte[] record : records) {
+            batch.putInt(record.length);
+            batch.put(record);
+        }
+        synchronized (this) {
+            pending.add(batch.array());
+            appendedSeq += records.size();
+            return appendedSeq;
+        }
+    }
+
+    /**
+     * @return 最后分配的记录序号，之后追加的记录序号都比它大
+     */
+    public synchronized long getLastSequence() {
+        return appendedSeq;
+    }
+
+    /**
+     * 等待指定序号及之前的记录写出，不要在持有引擎锁时调用，否则无法合并并发写入。
+     *
+     * @param seq {@link #append}返回的序号
+     * @throws IOException 写入失败
+     */
+    public void sync(long seq) throws IOException {
+        if (syncedSeq >= seq) {
+            return;
+        }
+        synchronized (syncMonitor) {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            writePending(policy == SyncPolicy.ALWAYS);
+        }
+    }
+
+    /**
+     * 写出指定序号及之前的记录并fsync，不受刷盘策略影响，用于必须在删除其他数据之前落盘的记录。
+     *
+     * @param seq {@link #append}返回的序号
+     * @throws IOException 写入失败
+     */
+    public void forceSync(long seq) throws IOException {
+        synchronized (syncMonitor) {
+            if (syncedSeq >= seq && !dirty) {
+                return;
+            }
+            writePending(true);
+        }
+    }
+
+    /**
+     * 内存表切换时滚动到新段。旧段写完并fsync后关闭，待内存表持久化后由{@link #deleteObsolete}删除。
+     *
+     * @return 被关闭的旧段号
+     * @throws IOException 写入失败
+     */
+    public long roll() throws IOException {
+        synchronized (syncMonitor) {
+            writePending(true);
+            channel.close();
+            long closed = segmentId;
+            openSegment(segmentId + 1);
+            return closed;
+        }
+    }
+
+    /**
+     * 删除指定段及之前的所有段，调用方需保证这些段中的数据已经持久化到table文件。
+     * 多个内存表排队刷盘时，每刷完一个只删除它对应的段，后面排队的内存表的段保留。
+     *
+     * @param upToSegmentId 最后一个可以删除的段号
+     * @throws IOException 删除失败
+     */
+    public void deleteObsolete(long upToSegmentId) throws IOException {
+        for (Map.Entry<Long, File> entry : listSegments().entrySet()) {
+            if (entry.getKey() <= upToSegmentId) {
+                Files.deleteIfExists(entry.getValue().toPath());
+            }
+        }
+    }
+
+    private void writePending(boolean force) throws IOException {
+        List<byte[]> batch;
+        long upTo;
+        synchronized (this) {
+            batch = pending;
+            upTo = appendedSeq;
+            pending = new ArrayList<>();
+        }
+        if (!batch.isEmpty()) {
+            int size = 0;
+            for (byte[] record : batch) {
+                size += HEADER_SIZE + record.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (byte[] record : batch) {
+                buffer.putInt(record.length);
+                buffer.putInt(crc(record));
+                buffer.put(record);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            dirty = true;
+        }
+        if (force && dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+        syncedSeq = upTo;
+    }
+
+    private void forceQuietly() {
+        synchronized (syncMonitor) {
+            try {
+                if (channel != null && channel.isOpen()) {
+                    writePending(true);
+                }
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "forceQuietly", "fsync wal failed");
+            }
+        }
+    }
+
+    private void openSegment(long id) throws IOException {
+        this.segmentId = id;
+        this.channel = FileChannel.open(Paths.get(dir, PREFIX + id + SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private TreeMap<Long, File> listSegments() {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File[] files = new File(dir).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static int crc(byte[] record) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(record, 0, record.length);
+        return (int) crc32.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncScheduler != null) {
+            syncScheduler.shutdownNow();
+        }
+        synchronized (syncMonitor) {
+            if (channel != null && channel.isOpen()) {
+                writePending(true);
+                channel.close();
+            }
+        }
+    }
+}
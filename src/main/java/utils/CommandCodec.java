@@ -0,0 +1,153 @@
+package utils;
+
+import com.alibaba.fastjson.JSON;
+import model.command.BlobRefCommand;
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 命令的紧凑二进制编解码。
+ * <p>
+ * 格式（版本1）：
+ * <pre>
+ * [byte 版本][byte 类型][varint keyLen][key UTF-8][varint valueLen+1][value UTF-8]
+ * </pre>
+ * 类型0为SET、1为RM，RM没有value部分；valueLen+1为0表示value为null。
+ * 类型2为值分离的SET，value部分换成值在blob文件中的位置：[long fileId][long offset][varint len]。
+ * 旧版本以fastjson序列化落盘，首字节必为'{'，解码时据此兼容读取。
+ */
+public class CommandCodec {
+
+    public static final byte VERSION = 1;
+    private static final byte TYPE_SET = 0;
+    private static final byte TYPE_RM = 1;
+    private static final byte TYPE_BLOB = 2;
+    private static final byte JSON_START = '{';
+
+    public static byte[] encode(Command command) {
+        byte[] key = command.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] value = null;
+        byte type;
+        if (command instanceof SetCommand) {
+            type = TYPE_SET;
+            String v = ((SetCommand) command).getValue();
+            value = v == null ? null : v.getBytes(StandardCharsets.UTF_8);
+        } else if (command instanceof RmCommand) {
+            type = TYPE_RM;
+        } else if (command instanceof BlobRefCommand) {
+            type = TYPE_BLOB;
+        } else {
+            throw new IllegalArgumentException("未知的命令类型: " + command.getClass());
+        }
+
+        int size = 2 + varIntSize(key.length) + key.length;
+        if (type == TYPE_SET) {
+            int valueLen = value == null ? 0 : value.length;
+            size += varIntSize(valueLen + 1) + valueLen;
+        } else if (type == TYPE_BLOB) {
+            size += 8 + 8 + varIntSize(((BlobRefCommand) command).getLen());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION);
+        buffer.put(type);
+        putVarInt(buffer, key.length);
+        buffer.put(key);
+        if (type == TYPE_SET) {
+            if (value == null) {
+                putVarInt(buffer, 0);
+            } else {
+                putVarInt(buffer, value.length + 1);
+                buffer.put(value);
+            }
+        } else if (type == TYPE_BLOB) {
+            BlobRefCommand ref = (BlobRefCommand) command;
+            buffer.putLong(ref.getFileId());
+            buffer.putLong(ref.getOffset());
+            putVarInt(buffer, ref.getLen());
+        }
+        return buffer.array();
+    }
+
+    public static Command decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 从缓冲区当前位置解码一条命令，读取后position移动到记录末尾。
+     *
+     * @param buffer 缓冲区，remaining即为记录长度
+     * @return 命令，无法识别的类型返回null
+     */
+    public static Command decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        byte version = buffer.get(start);
+        if (version == JSON_START) {
+            byte[] json = new byte[buffer.remaining()];
+            buffer.get(json);
+            return CommandUtil.jsonToCommand(JSON.parseObject(new String(json, StandardCharsets.UTF_8)));
+        }
+        if (version != VERSION) {
+            throw new IllegalArgumentException("不支持的记录版本: " + version);
+        }
+        buffer.get();
+        byte type = buffer.get();
+        String key = getString(buffer, getVarInt(buffer));
+        if (type == TYPE_SET) {
+            int valueLen = getVarInt(buffer) - 1;
+            return new SetCommand(key, valueLen < 0 ? null : getString(buffer, valueLen));
+        } else if (type == TYPE_RM) {
+            return new RmCommand(key);
+        } else if (type == TYPE_BLOB) {
+            long fileId = buffer.getLong();
+            long offset = buffer.getLong();
+            return new BlobRefCommand(key, fileId, offset, getVarInt(buffer));
+        }
+        return null;
+    }
+
+    private static String getString(ByteBuffer buffer, int len) {
+        String s;
+        if (buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), len, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + len);
+        } else {
+            byte[] bytes = new byte[len];
+            buffer.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint格式错误");
+    }
+}
@@ -24,4 +24,24 @@ public class CommandUtil {
         }
         return null;
     }
+
+    /**
+     * 将命令序列化为落盘使用的字节，格式见{@link CommandCodec}。
+     *
+     * @param command 命令
+     * @return 序列化后的字节
+     */
+    public static byte[] encode(Command command) {
+        return CommandCodec.encode(command);
+    }
+
+    /**
+     * 将落盘的字节反序列化为命令，兼容旧版fastjson格式。
+     *
+     * @param bytes 序列化后的字节
+     * @return 命令，无法识别的类型返回null
+     */
+    public static Command decode(byte[] bytes) {
+        return CommandCodec.decode(bytes);
+    }
 }
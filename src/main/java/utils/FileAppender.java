@@ -0,0 +1,128 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 长生命周期的文件追加器，替代每写一个字段就打开关闭一次文件的{@link RandomAccessFileUtil#write}。
+ * <p>
+ * 文件只打开一次，写入位置在内存中维护；记录先攒到可复用的直接内存缓冲区，
+ * 缓冲区满或调用{@link #flush}时才发起一次大的FileChannel写。
+ * 记录格式与原来一致：[int len][record]。
+ * 追加只能由一个线程进行；{@link #read}是定位读，可以与追加并发。
+ */
+public class FileAppender implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String filePath;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * 逻辑写入位置，包含尚在缓冲区中的数据
+     */
+    private long position;
+
+    /**
+     * 已经写入文件的位置
+     */
+    private long flushedPosition;
+
+    public FileAppender(String filePath) throws IOException {
+        this.filePath = filePath;
+        this.channel = FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.position = channel.size();
+        this.flushedPosition = position;
+    }
+
+    /**
+     * 追加一条长度前缀的记录。
+     *
+     * @param record 记录字节
+     * @return 记录内容（不含长度前缀）在文件中的起始位置
+     * @throws IOException 写入失败
+     */
+    public long append(byte[] record) throws IOException {
+        if (buffer.remaining() < 4 + record.length) {
+            flush();
+        }
+        long recordPos = position + 4;
+        if (buffer.remaining() < 4 + record.length) {
+            // 超大记录直接写，此时缓冲区已清空，不经过缓冲区
+            ByteBuffer large = ByteBuffer.allocate(4 + record.length);
+            large.putInt(record.length).put(record).flip();
+            writeFully(large);
+        } else {
+            buffer.putInt(record.length);
+            buffer.put(record);
+        }
+        position += 4 + record.length;
+        return recordPos;
+    }
+
+    /**
+     * 将缓冲区写入文件（不保证落盘）
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * 写出缓冲区并fsync
+     */
+    public void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    /**
+     * 通过同一个文件句柄定位读取，调用方需保证要读的数据已经{@link #flush}。
+     *
+     * @param pos 起始位置
+     * @param len 长度
+     * @return 读取的字节
+     * @throws IOException 读取失败
+     */
+    public byte[] read(long pos, int len) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(len);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, pos + dst.position()) < 0) {
+                throw new IOException("读取越界: " + filePath + " pos=" + pos + " len=" + len);
+            }
+        }
+        return dst.array();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            flushedPosition += channel.write(src, flushedPosition);
+        }
+    }
+
+    /**
+     * @return 文件逻辑大小，包含缓冲区中尚未写出的数据
+     */
+    public long size() {
+        return position;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            flush();
+            channel.close();
+        }
+    }
+}
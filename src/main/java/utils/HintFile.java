@@ -0,0 +1,167 @@
+package utils;
+
+import model.command.CommandPos;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 活跃data.table的提示文件，记录每条记录的key、偏移和长度，重启时直接加载而不必解码整个数据文件。
+ * <p>
+ * 每次刷盘追加一批：[int bodyLen][int crc32][body]，
+ * body为 [long coveredLength][int count] 加上count个 [int keyLen][key][long pos][int len]，
+ * coveredLength是写入这一批后数据文件的长度。数据文件fsync之后才写提示，提示不会指向未落盘的数据；
+ * 每批写完后提示文件也fsync，崩溃后可信的提示都是完整落盘的批次。
+ * <p>
+ * 加载时按顺序读取各批，遇到截断或校验失败即停止并截掉坏的尾部；
+ * 最后一批覆盖到的长度之后的数据由调用方扫描补齐。
+ * 覆盖长度超过数据文件实际长度说明提示已过期，整个丢弃。
+ * 非线程安全，调用方需持有引擎写锁。
+ */
+public class HintFile implements Closeable {
+
+    public static final String SUFFIX = ".hint";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private long coveredLength;
+
+    private HintFile(Path path, long validLength, long coveredLength) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        this.coveredLength = coveredLength;
+    }
+
+    /**
+     * 加载提示时接收每条记录的位置，同一个key后加载的覆盖先加载的
+     */
+    public interface Loader {
+        void load(String key, long pos, int len);
+    }
+
+    /**
+     * 打开数据文件对应的提示文件，把其中有效的部分加载到索引中。
+     * 先校验各批并确定有效前缀，提示过期时不加载任何条目，再从有效前缀中加载。
+     *
+     * @param dataFilePath 数据文件路径
+     * @param loader       加载目标，按写入顺序接收各条记录
+     * @return 提示文件，{@link #getCoveredLength()}之后的数据需要调用方自行扫描
+     * @throws IOException 读取或创建提示文件失败
+     */
+    public static HintFile open(String dataFilePath, Loader loader) throws IOException {
+        Path path = Paths.get(dataFilePath + SUFFIX);
+        long dataLength = new File(dataFilePath).length();
+        if (!Files.exists(path)) {
+            return new HintFile(path, 0, 0);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        long validLength = 0;
+        long covered = 0;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int bodyLen = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (bodyLen < 12 || bodyLen > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), bodyLen);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            long batchCovered = buffer.getLong(buffer.position());
+            if (batchCovered > dataLength) {
+                // 数据文件比提示记录的短，提示已经过期
+                return new HintFile(path, 0, 0);
+            }
+            buffer.position(buffer.position() + bodyLen);
+            covered = batchCovered;
+            validLength = buffer.position();
+        }
+
+        buffer.position(0);
+        while (buffer.position() < validLength) {
+            int bodyLen = buffer.getInt();
+            buffer.getInt();
+            ByteBuffer body = buffer.slice();
+            body.limit(bodyLen);
+            buffer.position(buffer.position() + bodyLen);
+            body.getLong();
+            int count = body.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[body.getInt()];
+                body.get(key);
+                long pos = body.getLong();
+                int len = body.getInt();
+                loader.load(new String(key, StandardCharsets.UTF_8), pos, len);
+            }
+        }
+        return new HintFile(path, validLength, covered);
+    }
+
+    /**
+     * 追加一批提示并落盘，调用前数据文件必须已经落盘到coveredLength。
+     *
+     * @param entries       本批写入的key及其位置
+     * @param coveredLength 写入这批记录后数据文件的长度
+     * @throws IOException 写入失败
+     */
+    public void append(Map<String, CommandPos> entries, long coveredLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + 12 + entries.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeLong(coveredLength);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, CommandPos> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeLong(entry.getValue().getPos());
+            out.writeInt(entry.getValue().getLen());
+        }
+        out.flush();
+        ByteBuffer batch = ByteBuffer.wrap(bytes.toByteArray());
+        int bodyLen = batch.limit() - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(batch.array(), HEADER_SIZE, bodyLen);
+        batch.putInt(0, bodyLen);
+        batch.putInt(4, (int) crc.getValue());
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        channel.force(false);
+        this.coveredLength = coveredLength;
+    }
+
+    /**
+     * @return 提示已覆盖到的数据文件长度
+     */
+    public long getCoveredLength() {
+        return coveredLength;
+    }
+
+    /**
+     * 关闭并删除提示文件，必须在删除对应的数据文件之前调用
+     */
+    public void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,48 @@
+package utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * 内存映射文件的辅助方法。
+ * JDK没有公开的unmap接口，映射要等GC回收才会释放，被删除的文件在此之前仍占用磁盘空间和地址空间，
+ * 这里通过反射调用JDK内部的cleaner主动释放。
+ */
+public class MappedFileUtil {
+
+    /**
+     * 立即释放映射。调用后任何对该缓冲区（及其duplicate/slice）的访问都会导致JVM崩溃，
+     * 调用方必须保证已没有读者在使用。
+     *
+     * @param buffer 映射缓冲区
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            // JDK 9+：sun.misc.Unsafe#invokeCleaner
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            // JDK 8：DirectBuffer#cleaner().clean()
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception ignored) {
+                // 无法主动释放时交给GC
+            }
+        } catch (Exception ignored) {
+            // 无法主动释放时交给GC
+        }
+    }
+}